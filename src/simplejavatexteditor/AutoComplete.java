@@ -4,7 +4,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import javax.swing.AbstractAction;
 import javax.swing.ActionMap;
 import javax.swing.InputMap;
@@ -14,17 +15,30 @@ import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
 
 /**
  * <h1>Auto complete functionality multiple programming languages, including brackets and
  * parentheses</h1>
  *
  * <p>
- * An ArrayList is created for the keywords and the brackets.
- * Logic for setting the content of the ArrayList is
- * found in UI.java. If the word currently being typed
- * matches a word in the list, a Runnable inner class is
- * implemented to handle the word completion.
+ * The keywords come from a CompletionIndex shared by
+ * every tab of a language, see Language.java, and an
+ * ArrayList is created for the brackets. The word
+ * currently being typed is completed from the keywords,
+ * the words of all open tabs, see BufferWords.java, and
+ * the symbols of the project, see ProjectIndex.java. They
+ * are matched fuzzily in the background, see
+ * FuzzyCompleter.java, and shown in a CompletionPopup.
+ * A bracket is closed by a Runnable inner class.
+ *
+ * Typing runs this on every key, so only the chars just
+ * before the caret are read, into arrays that are reused,
+ * and no text of the document is copied. What a key
+ * allocates is the typed word and the request for it,
+ * the same at any caret offset, see
+ * AutoCompleteAllocations.java in the tests.
  *
  * Two other inner classes are also used. The second one handles when the enter
  * key is pressed in response to an auto complete suggestion. The third one
@@ -40,8 +54,12 @@ public class AutoComplete
 
     private ArrayList<String> brackets = new ArrayList<>();
     private ArrayList<String> bracketCompletions = new ArrayList<>();
+    //The opening brackets as chars, in the order of bracketCompletions
+    private final String bracketChars;
 
-    private ArrayList<String> words = new ArrayList<>();
+    private final CompletionIndex words;
+    private final FuzzyCompleter completer;
+    private final CompletionPopup popup;
 
     SupportedKeywords kw;
 
@@ -51,32 +69,76 @@ public class AutoComplete
         INSERT, COMPLETION
     };
 
-    private final UI ui;
+    //The project of the tab, looked up when completing
+    private final Function<JTextArea, ProjectIndex> projects;
+    private final SyntaxHighlighter syntax;
     private Mode mode = Mode.INSERT;
     private final JTextArea textArea;
     private static final String COMMIT_ACTION = "commit";
-    private boolean isKeyword;
     private int pos;
-    private String content;
 
-    public AutoComplete(UI ui, ArrayList<String> al) {
+    //Longer words are not completed, so no more is read before the caret
+    private static final int MAX_WORD = BufferWords.MAX_LENGTH;
+    //The chars up to the caret, the typed one last
+    private final char[] typed = new char[MAX_WORD + 1];
+    private final Segment text = new Segment();
+    //The word being typed, a view of typed
+    private final Segment prefix = new Segment();
+    //Where the word of the latest request is, only its result is shown
+    private int wordStart;
+    private int wordEnd;
+    private final Consumer<FuzzyCompleter.Result> show;
+
+    /**
+     * @param ui the editor
+     * @param words the keywords of the language
+     * @param syntax the highlighter of the tab, whose lexer tells words,
+     * comments and strings apart, or null
+     */
+    public AutoComplete(UI ui, CompletionIndex words, SyntaxHighlighter syntax) {
+        this(ui.getEditor(), words, ui.getBufferWords(), ui::getProject, syntax);
+    }
+
+    /**
+     * @param textArea the text area to complete in
+     * @param words the keywords of the language
+     * @param bufferWords the words of the open tabs
+     * @param projects gives the project of a text area, or null for none
+     * @param syntax the highlighter of the tab, or null
+     */
+    AutoComplete(JTextArea textArea, CompletionIndex words, BufferWords bufferWords,
+            Function<JTextArea, ProjectIndex> projects, SyntaxHighlighter syntax) {
         //Set the keywords
-        words = al;
+        this.words = words;
+        this.syntax = syntax;
         kw = new SupportedKeywords();
         brackets = kw.getBrackets();
         bracketCompletions = kw.getBracketCompletions();
+        StringBuilder opening = new StringBuilder();
+        for (String bracket : brackets) {
+            opening.append(bracket.charAt(0));
+        }
+        bracketChars = opening.toString();
+        text.setPartialReturn(true);
+        prefix.array = typed;
 
         //Access the editor
-        this.ui = ui;
-        textArea = ui.getEditor();
+        this.textArea = textArea;
+        this.projects = projects;
+        completer = new FuzzyCompleter(words, bufferWords);
+        popup = new CompletionPopup(textArea, s -> {
+            //Ranks the keyword higher in every tab of the language
+            if (s.id >= 0) {
+                words.used(s.id);
+            }
+        });
+        show = result -> popup.show(wordStart, wordEnd, result);
 
         //Set the handler for the enter key
         InputMap im = textArea.getInputMap();
         ActionMap am = textArea.getActionMap();
         im.put(KeyStroke.getKeyStroke("ENTER "), COMMIT_ACTION);
         am.put(COMMIT_ACTION, new CommitAction());
-
-        Collections.sort(words);
     }
 
     /**
@@ -88,53 +150,111 @@ public class AutoComplete
      */
     @Override
     public void insertUpdate(DocumentEvent e) {
-        pos = e.getOffset();
-        content = null;
-
-        try {
-            content = textArea.getText(0, pos + 1);
-        } catch (BadLocationException ex) {
-            ex.printStackTrace();
+        //Only single typed characters, not pastes, file loads or Replace All
+        if (e.getLength() != 1 || PieceTableDocument.isBatching(e.getDocument())) {
+            return;
         }
 
-        if (e.getLength() != 1) {
+        pos = e.getOffset();
+        int n = readBefore(e.getDocument(), pos + 1);
+        if (n == 0) {
             return;
         }
 
         //Before checking for a keyword
-        checkForBracket();
+        checkForBracket(typed[n - 1]);
+
+        //No keywords in comments and strings
+        if (syntax != null) {
+            int type = syntax.tokenTypeAt(pos + 1);
+            if (type == Lexer.COMMENT || type == Lexer.STRING) {
+                stop();
+                return;
+            }
+        }
+
+        complete(n, pos + 1);
+    }
+
+    /**
+     * Chars were removed. While the list is shown
+     * it follows the word being typed.
+     *
+     * @param e
+     */
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (popup.isVisible()) {
+            int end = e.getOffset();
+            complete(readBefore(e.getDocument(), end), end);
+        }
+    }
 
+    /**
+     * Asks for the completions of the word that
+     * ends the chars read into typed.
+     *
+     * @param n the number of chars read
+     * @param end where they end in the document
+     */
+    private void complete(int n, int end) {
         //Get the beginning of the word being typed
         int start;
-        for (start = pos; start >= 0; start--) {
-            if (!Character.isLetter(content.charAt(start))) {
+        for (start = n - 1; start >= 0; start--) {
+            if (!isWordChar(typed[start])) {
                 break;
             }
         }
 
         //Auto complete will start
-        //after two characters are typed
-        if (pos - start < 2) {
+        //after two characters are typed,
+        //and not for a word longer than any completion
+        int length = n - 1 - start;
+        if (length < 2 || (start < 0 && n == typed.length)) {
+            stop();
             return;
         }
+        prefix.offset = start + 1;
+        prefix.count = length;
+
+        //The list stays open while the word grows,
+        //the new results replace it when they come
+        wordStart = end - length;
+        wordEnd = end;
+        popup.follow(end);
+        completer.request(prefix.toString(), projects.apply(textArea), show);
+    }
 
-        //Search for a match on the word being typed
-        //in the keywords ArrayList
-        String prefix = content.substring(start + 1);
-        int n = Collections.binarySearch(words, prefix);
-
-        if (n < 0 && -n < words.size()) {
-            String match = words.get(-n - 1);
+    //No completion for what is typed now
+    private void stop() {
+        completer.cancel();
+        popup.hide();
+    }
 
-            if (match.startsWith(prefix)) {
-                String completion = match.substring(pos - start);
-                isKeyword = true;
-                SwingUtilities.invokeLater(
-                        new CompletionTask(completion, pos + 1));
-            } else {
-                mode = Mode.INSERT;
+    /**
+     * Reads the chars before an offset into typed, as many as fit. The
+     * document hands out its own array where it can, as little as it has in
+     * one piece, so nothing is allocated.
+     *
+     * @return the number of chars read, they end at the offset
+     */
+    private int readBefore(Document doc, int end) {
+        int from = Math.max(0, end - typed.length);
+        try {
+            for (int n = 0; from + n < end; n += text.count) {
+                doc.getText(from + n, end - from - n, text);
+                System.arraycopy(text.array, text.offset, typed, n, text.count);
             }
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            return 0;
         }
+        return end - from;
+    }
+
+    //What a word is depends on the language
+    private boolean isWordChar(char c) {
+        return syntax != null ? syntax.getLexer().isWordChar(c) : Character.isLetter(c);
     }
 
     /**
@@ -142,17 +262,11 @@ public class AutoComplete
      * key typed was one of the supported
      * bracket characters
      */
-    private void checkForBracket() {
-        //String of the last typed character
-        char c = content.charAt(pos);
-        String s = String.valueOf(c);
-
-        for (int i = 0; i < brackets.size(); i++) {
-            if (brackets.get(i).equals(s)) {
-                isKeyword = false;
-                SwingUtilities.invokeLater(
-                        new CompletionTask(bracketCompletions.get(i), pos + 1));
-            }
+    private void checkForBracket(char c) {
+        int i = bracketChars.indexOf(c);
+        if (i >= 0) {
+            SwingUtilities.invokeLater(
+                    new CompletionTask(bracketCompletions.get(i), pos + 1));
         }
     }
 
@@ -161,19 +275,10 @@ public class AutoComplete
      *
      * @return the keywords
      */
-    private ArrayList<String> getKeywords() {
+    private CompletionIndex getKeywords() {
         return words;
     }
 
-    /**
-     * So that these keywords can be modified or added to in the future.
-     *
-     * @param keyword the keyword to set
-     */
-    private void setKeywords(String keyword) {
-        words.add(keyword);
-    }
-
     /**
      * Handles the auto complete suggestion
      * generated when the user is typing a
@@ -197,9 +302,7 @@ public class AutoComplete
             textArea.setCaretPosition(position + completion.length());
             textArea.moveCaretPosition(position);
             mode = Mode.COMPLETION;
-            if (!isKeyword) {
-                textArea.addKeyListener(new HandleBracketEvent());
-            }
+            textArea.addKeyListener(new HandleBracketEvent());
         }
     }
 
@@ -214,14 +317,10 @@ public class AutoComplete
         @Override
         public void actionPerformed(ActionEvent e) {
 
-            if (mode == Mode.COMPLETION) {
-                int pos = textArea.getSelectionEnd();
-
-                if (isKeyword) {
-                    textArea.insert(" ", pos);
-                    textArea.setCaretPosition(pos + 1);
-                    mode = Mode.INSERT;
-                }
+            if (popup.isVisible()) {
+                popup.commit();
+            } else if (mode == Mode.COMPLETION) {
+                //A closed bracket, HandleBracketEvent sees the key
             } else {
                 mode = Mode.INSERT;
                 textArea.replaceSelection("\n");
@@ -272,8 +371,13 @@ public class AutoComplete
         }
     }
 
-    @Override
-    public void removeUpdate(DocumentEvent e) {
+    /**
+     * Closes the list and lets go of the text area,
+     * when the tab closes or gets another language.
+     */
+    public void dispose() {
+        completer.cancel();
+        popup.dispose();
     }
 
     @Override
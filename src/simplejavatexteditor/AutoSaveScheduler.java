@@ -0,0 +1,170 @@
+package simplejavatexteditor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Debounced auto-save</h1>
+ *
+ * <p>
+ * Each edit (re)schedules a save of its tab {@code delayMs} after the last
+ * keystroke, so a burst of typing results in a single save. A tab that is
+ * edited continuously is still saved at most {@code maxLatencyMs} after its
+ * first unsaved edit. Saves run on a pool of {@code writers} threads, which
+ * caps how many files are written at once, and a tab is never saved by two
+ * threads at the same time.
+ * </p>
+ *
+ * <p>
+ * The duration of every save is recorded, see {@link #getTimings()}.
+ * </p>
+ *
+ * @param <K> the key identifying a tab
+ */
+public class AutoSaveScheduler<K> {
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final long delayMs;
+    private final long maxLatencyMs;
+    private final Map<K, Pending> pending = new HashMap<>();
+
+    private long saves;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+
+    private class Pending {
+        final long firstEdit;
+        Runnable save;
+        ScheduledFuture<?> future;
+        boolean running;
+
+        Pending(long firstEdit) {
+            this.firstEdit = firstEdit;
+        }
+    }
+
+    /**
+     * @param delayMs how long after the last edit a tab is saved
+     * @param maxLatencyMs how long after the first unsaved edit a tab is saved at the latest
+     * @param writers the maximum number of saves running at the same time
+     */
+    public AutoSaveScheduler(long delayMs, long maxLatencyMs, int writers) {
+        this.delayMs = delayMs;
+        this.maxLatencyMs = maxLatencyMs;
+        executor = new ScheduledThreadPoolExecutor(writers, r -> {
+            Thread t = new Thread(r, "Auto Save");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Called after every edit of a tab.
+     *
+     * @param key the tab
+     * @param save writes the tab, run on a worker thread
+     */
+    public synchronized void editHappened(K key, Runnable save) {
+        long now = System.currentTimeMillis();
+        Pending p = pending.get(key);
+        if (p == null) {
+            p = new Pending(now);
+            pending.put(key, p);
+        }
+        p.save = save;
+        if (p.running) {
+            //Picked up again when the running save finishes
+            return;
+        }
+        if (p.future != null) {
+            p.future.cancel(false);
+        }
+        schedule(key, p, now);
+    }
+
+    private void schedule(K key, Pending p, long now) {
+        long delay = Math.max(0, Math.min(delayMs, p.firstEdit + maxLatencyMs - now));
+        p.future = executor.schedule(() -> run(key, p), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(K key, Pending p) {
+        Runnable save;
+        synchronized (this) {
+            //A cancelled future may still start, only the current round may save
+            if (pending.get(key) != p || p.running) {
+                return;
+            }
+            pending.remove(key);
+            save = p.save;
+            //Edits made while saving start a new round, marked as waiting for this one
+            Pending next = new Pending(System.currentTimeMillis());
+            next.running = true;
+            pending.put(key, next);
+        }
+
+        long start = System.nanoTime();
+        try {
+            save.run();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+        long took = System.nanoTime() - start;
+
+        synchronized (this) {
+            saves++;
+            totalNanos += took;
+            lastNanos = took;
+            maxNanos = Math.max(maxNanos, took);
+
+            Pending next = pending.get(key);
+            if (next != null && next.running) {
+                next.running = false;
+                if (next.save == null) {
+                    pending.remove(key);
+                } else {
+                    schedule(key, next, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the pending save of a tab, e.g. when it is closed.
+     *
+     * @param key the tab
+     */
+    public synchronized void cancel(K key) {
+        Pending p = pending.remove(key);
+        if (p != null && p.future != null) {
+            p.future.cancel(false);
+        }
+    }
+
+    /**
+     * Drops every pending save, e.g. when auto-save is switched off.
+     */
+    public synchronized void cancelAll() {
+        for (Pending p : pending.values()) {
+            if (p.future != null) {
+                p.future.cancel(false);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return a summary of how long saves took so far
+     */
+    public synchronized String getTimings() {
+        if (saves == 0) {
+            return "No auto-saves yet";
+        }
+        return String.format("%d auto-saves, last %.1f ms, average %.1f ms, max %.1f ms",
+                saves, lastNanos / 1e6, totalNanos / 1e6 / saves, maxNanos / 1e6);
+    }
+}
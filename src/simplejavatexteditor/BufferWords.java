@@ -0,0 +1,195 @@
+package simplejavatexteditor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+/**
+ * <h1>The words typed in all open tabs, for completion</h1>
+ *
+ * <p>
+ * Counts how often every identifier occurs over all attached documents, in
+ * a concurrent sorted map, so the words starting with a prefix are next to
+ * each other. A word is gone as soon as its last occurrence is. What an
+ * identifier is depends on the {@link Lexer} a document is attached with.
+ * </p>
+ *
+ * <p>
+ * A document is scanned once when attached, on a background thread. After
+ * that only edits are looked at: the listener keeps a
+ * {@link PieceTableContent.Snapshot} of the previous text, which still has
+ * the removed chars, so an edit costs the words around it, undo and redo
+ * included. Counts are only ever added, so the first scan and the edits
+ * made meanwhile can be counted in any order.
+ * </p>
+ */
+public class BufferWords {
+
+    static final int MIN_LENGTH = 3;
+    static final int MAX_LENGTH = 64;
+
+    private static final ExecutorService SCANNER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Buffer Words");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final ConcurrentSkipListMap<CharSequence, Integer> counts = new ConcurrentSkipListMap<>(CharSequence::compare);
+    //Only touched on the EDT
+    private final Map<Document, Tracker> trackers = new HashMap<>();
+
+    /**
+     * Adds the words of a document and follows its edits.
+     *
+     * @param doc the document of a tab
+     * @param lexer tells words apart, the same one until the document is
+     * detached, so its words are removed as they were added
+     */
+    public void attach(Document doc, Lexer lexer) {
+        if (trackers.containsKey(doc)) {
+            return;
+        }
+        Tracker tracker = new Tracker(doc, lexer);
+        trackers.put(doc, tracker);
+        doc.addDocumentListener(tracker);
+        PieceTableContent.Snapshot all = PieceTableContent.snapshot(doc);
+        SCANNER.execute(() -> add(all, 1, lexer));
+    }
+
+    /**
+     * Removes the words of a document, e.g. when its tab is closed.
+     *
+     * @param doc the document
+     */
+    public void detach(Document doc) {
+        Tracker tracker = trackers.remove(doc);
+        if (tracker != null) {
+            doc.removeDocumentListener(tracker);
+            PieceTableContent.Snapshot all = tracker.last;
+            tracker.last = null;
+            SCANNER.execute(() -> add(all, -1, tracker.lexer));
+        }
+    }
+
+    /**
+     * Visits the words starting with a prefix, in alphabetical order, with
+     * their counts. Safe on any thread, edits meanwhile may or may not be
+     * seen.
+     *
+     * @param prefix the prefix
+     * @param visitor gets the words until it returns false
+     * @return false if the visitor stopped
+     */
+    public boolean forEach(CharSequence prefix, FuzzyCompleter.Visitor visitor) {
+        for (Map.Entry<CharSequence, Integer> e : counts.tailMap(prefix).entrySet()) {
+            CharSequence word = e.getKey();
+            if (!startsWith(word, prefix)) {
+                break;
+            }
+            if (e.getValue() > 0 && !visitor.visit(word.toString(), e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(CharSequence word, CharSequence prefix) {
+        if (word.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (word.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Counts every word of a text at once
+    private void add(PieceTableContent.Snapshot text, int sign, Lexer lexer) {
+        Map<String, Integer> delta = new HashMap<>();
+        count(text, 0, text.length(), sign, lexer, delta);
+        apply(delta);
+    }
+
+    //Counts the words touching [from, to) into delta
+    private static void count(PieceTableContent.Snapshot text, int from, int to, int sign, Lexer lexer,
+            Map<String, Integer> delta) {
+        int length = text.length();
+        while (from > 0 && lexer.isWordChar(text.charAt(from - 1))) {
+            from--;
+        }
+        while (to < length && lexer.isWordChar(text.charAt(to))) {
+            to++;
+        }
+        int i = from;
+        while (i < to) {
+            if (!lexer.isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < to && lexer.isWordChar(text.charAt(i))) {
+                i++;
+            }
+            int n = i - start;
+            if (n >= MIN_LENGTH && n <= MAX_LENGTH && !Character.isDigit(text.charAt(start))) {
+                delta.merge(text.subSequence(start, i).toString(), sign, Integer::sum);
+            }
+        }
+    }
+
+    private void apply(Map<String, Integer> delta) {
+        for (Map.Entry<String, Integer> e : delta.entrySet()) {
+            if (e.getValue() != 0) {
+                counts.merge(e.getKey(), e.getValue(), (a, b) -> a + b == 0 ? null : a + b);
+            }
+        }
+    }
+
+    /**
+     * Turns each edit of one document into count changes, from the text
+     * before and after it
+     */
+    private class Tracker implements DocumentListener {
+
+        private final Document doc;
+        private final Lexer lexer;
+        private PieceTableContent.Snapshot last;
+
+        Tracker(Document doc, Lexer lexer) {
+            this.doc = doc;
+            this.lexer = lexer;
+            last = PieceTableContent.snapshot(doc);
+        }
+
+        private void edit(int offset, int removed, int inserted) {
+            PieceTableContent.Snapshot now = PieceTableContent.snapshot(doc);
+            Map<String, Integer> delta = new HashMap<>();
+            count(last, offset, offset + removed, -1, lexer, delta);
+            count(now, offset, offset + inserted, 1, lexer, delta);
+            last = now;
+            apply(delta);
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            edit(e.getOffset(), 0, e.getLength());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            edit(e.getOffset(), e.getLength(), 0);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    }
+}
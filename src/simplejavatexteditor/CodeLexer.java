@@ -0,0 +1,163 @@
+package simplejavatexteditor;
+
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Lexer for C-like and Python-like languages</h1>
+ *
+ * <p>
+ * Marks comments, string and char literals, and the keywords in the code
+ * between them, so a keyword inside a comment or a string is not marked.
+ * Block comments and triple-quoted strings can span lines; the line state
+ * tells which one the next line starts in, so lines can be lexed one by one.
+ * The instances for Java, C++ and Python are made by {@link Language}.
+ * </p>
+ */
+public class CodeLexer implements Lexer {
+
+    /**
+     * State of a line that starts inside a block comment
+     */
+    public static final int IN_COMMENT = 1;
+
+    /**
+     * State of a line that starts inside a """ string
+     */
+    public static final int IN_TRIPLE_DOUBLE = 2;
+
+    /**
+     * State of a line that starts inside a ''' string
+     */
+    public static final int IN_TRIPLE_SINGLE = 3;
+
+    private static final String TRIPLE_DOUBLE = "\"\"\"";
+    private static final String TRIPLE_SINGLE = "'''";
+
+    private final KeywordMatcher keywords;
+    private final String lineComment;
+    private final String commentStart;
+    private final String commentEnd;
+    private final boolean tripleDouble;
+    private final boolean tripleSingle;
+
+    /**
+     * @param keywords the keywords, see {@link SupportedKeywords}
+     * @param lineComment starts a comment up to the end of the line
+     * @param commentStart starts a block comment, or null if there are none
+     * @param commentEnd ends a block comment
+     * @param tripleDouble true if """ starts a string that can span lines
+     * @param tripleSingle true if ''' starts a string that can span lines
+     */
+    public CodeLexer(String[] keywords, String lineComment, String commentStart, String commentEnd,
+            boolean tripleDouble, boolean tripleSingle) {
+        this.keywords = KeywordMatcher.compile(keywords);
+        this.lineComment = lineComment;
+        this.commentStart = commentStart;
+        this.commentEnd = commentEnd;
+        this.tripleDouble = tripleDouble;
+        this.tripleSingle = tripleSingle;
+    }
+
+    @Override
+    public int lex(Segment line, int state, Tokens tokens) {
+        char[] a = line.array;
+        int base = line.offset;
+        int end = base + line.count;
+        int i = base;
+
+        //Finish what the previous line left open
+        if (state != INITIAL) {
+            String close = closing(state);
+            int j = indexOf(a, i, end, close, state != IN_COMMENT);
+            int type = state == IN_COMMENT ? COMMENT : STRING;
+            if (j < 0) {
+                tokens.add(0, line.count, type);
+                return state;
+            }
+            tokens.add(0, j + close.length() - base, type);
+            i = j + close.length();
+        }
+
+        int code = i;
+        while (i < end) {
+            char c = a[i];
+            if (startsWith(a, i, end, lineComment)) {
+                keywords.find(a, code, i, base, this, tokens, KEYWORD);
+                tokens.add(i - base, end - i, COMMENT);
+                return INITIAL;
+            }
+            int open = opening(a, i, end);
+            if (open != INITIAL) {
+                keywords.find(a, code, i, base, this, tokens, KEYWORD);
+                String start = open == IN_COMMENT ? commentStart : open == IN_TRIPLE_DOUBLE ? TRIPLE_DOUBLE : TRIPLE_SINGLE;
+                String close = closing(open);
+                int j = indexOf(a, i + start.length(), end, close, open != IN_COMMENT);
+                int type = open == IN_COMMENT ? COMMENT : STRING;
+                if (j < 0) {
+                    tokens.add(i - base, end - i, type);
+                    return open;
+                }
+                tokens.add(i - base, j + close.length() - i, type);
+                i = j + close.length();
+                code = i;
+            } else if (c == '"' || c == '\'') {
+                keywords.find(a, code, i, base, this, tokens, KEYWORD);
+                //An unterminated literal ends with the line
+                int j = i + 1;
+                while (j < end && a[j] != c) {
+                    j += a[j] == '\\' ? 2 : 1;
+                }
+                j = Math.min(j + 1, end);
+                tokens.add(i - base, j - i, STRING);
+                i = j;
+                code = i;
+            } else {
+                i++;
+            }
+        }
+        keywords.find(a, code, end, base, this, tokens, KEYWORD);
+        return INITIAL;
+    }
+
+    //The state a construct that spans lines starts at i, or INITIAL
+    private int opening(char[] a, int i, int end) {
+        if (commentStart != null && startsWith(a, i, end, commentStart)) {
+            return IN_COMMENT;
+        }
+        if (tripleDouble && startsWith(a, i, end, TRIPLE_DOUBLE)) {
+            return IN_TRIPLE_DOUBLE;
+        }
+        if (tripleSingle && startsWith(a, i, end, TRIPLE_SINGLE)) {
+            return IN_TRIPLE_SINGLE;
+        }
+        return INITIAL;
+    }
+
+    private String closing(int state) {
+        return state == IN_COMMENT ? commentEnd : state == IN_TRIPLE_DOUBLE ? TRIPLE_DOUBLE : TRIPLE_SINGLE;
+    }
+
+    private static boolean startsWith(char[] a, int i, int end, String s) {
+        if (s == null || end - i < s.length()) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (a[i + k] != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Index of s in a[from, end), skipping escaped chars in strings, or -1
+    private static int indexOf(char[] a, int from, int end, String s, boolean escapes) {
+        for (int i = from; i < end; i++) {
+            if (escapes && a[i] == '\\') {
+                i++;
+            } else if (startsWith(a, i, end, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,146 @@
+package simplejavatexteditor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <h1>The words completion can offer, by prefix, most used first</h1>
+ *
+ * <p>
+ * A prefix trie over the sorted words, stored in parallel arrays. Since the
+ * words are sorted, every node covers a range of word ids, so finding the
+ * words of a prefix is one walk down the trie and no list is built. The
+ * completer scores the words of that range, and ranks them by how often
+ * they were committed, see {@link FuzzyCompleter}.
+ * </p>
+ *
+ * <p>
+ * The trie never changes after it is built and is shared by every tab of a
+ * language, see {@link Language#getCompletions}. Only the use counts change,
+ * in {@link #used}.
+ * </p>
+ */
+public final class CompletionIndex {
+
+    private final String[] words;
+    private final AtomicIntegerArray uses;
+
+    //Per node: its char, first child, next sibling and the ids of its words, [from, to)
+    private final char[] label;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] from;
+    private final int[] to;
+
+    /**
+     * @param words the words, duplicates are ignored
+     */
+    public CompletionIndex(Collection<String> words) {
+        this.words = new TreeSet<>(words).toArray(new String[0]);
+        uses = new AtomicIntegerArray(this.words.length);
+
+        int maxNodes = 1;
+        for (String word : this.words) {
+            maxNodes += word.length();
+        }
+        char[] l = new char[maxNodes];
+        int[] child = new int[maxNodes];
+        int[] sibling = new int[maxNodes];
+        int[] f = new int[maxNodes];
+        int[] t = new int[maxNodes];
+        Arrays.fill(child, -1);
+        Arrays.fill(sibling, -1);
+        int nodes = 1;
+        t[0] = this.words.length;
+
+        //Words come in order, so a new child is always the last one and only the last path is extended
+        int[] lastChild = new int[maxNodes];
+        Arrays.fill(lastChild, -1);
+        for (int id = 0; id < this.words.length; id++) {
+            String word = this.words[id];
+            int node = 0;
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                int last = lastChild[node];
+                if (last == -1 || l[last] != c) {
+                    int n = nodes++;
+                    l[n] = c;
+                    f[n] = id;
+                    if (last == -1) {
+                        child[node] = n;
+                    } else {
+                        sibling[last] = n;
+                    }
+                    lastChild[node] = n;
+                    last = n;
+                }
+                t[last] = id + 1;
+                node = last;
+            }
+        }
+        label = Arrays.copyOf(l, nodes);
+        firstChild = Arrays.copyOf(child, nodes);
+        nextSibling = Arrays.copyOf(sibling, nodes);
+        from = Arrays.copyOf(f, nodes);
+        to = Arrays.copyOf(t, nodes);
+    }
+
+    /**
+     * @param prefix the prefix
+     * @return the id of the first word starting with prefix
+     */
+    public int first(CharSequence prefix) {
+        int node = find(prefix);
+        return node == -1 ? 0 : from[node];
+    }
+
+    /**
+     * @param prefix the prefix
+     * @return the id after the last word starting with prefix, the words
+     * between {@link #first} and this one are those starting with prefix
+     */
+    public int end(CharSequence prefix) {
+        int node = find(prefix);
+        return node == -1 ? 0 : to[node];
+    }
+
+    //One walk down the trie, the node of prefix or -1
+    private int find(CharSequence prefix) {
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node != -1; i++) {
+            char c = prefix.charAt(i);
+            node = firstChild[node];
+            while (node != -1 && label[node] != c) {
+                node = nextSibling[node];
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @param id a word id
+     * @return the word
+     */
+    public String word(int id) {
+        return words[id];
+    }
+
+    /**
+     * Counts a committed completion, so the word ranks higher from now on.
+     *
+     * @param id the word id
+     */
+    public void used(int id) {
+        uses.incrementAndGet(id);
+    }
+
+    /**
+     * @param id a word id
+     * @return how often the word was committed
+     */
+    public int uses(int id) {
+        return uses.get(id);
+    }
+}
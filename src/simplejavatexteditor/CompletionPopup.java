@@ -0,0 +1,225 @@
+package simplejavatexteditor;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Point;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.function.Consumer;
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JWindow;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.CaretListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+
+/**
+ * <h1>The list of completions shown under the word being typed</h1>
+ *
+ * <p>
+ * A window that never takes the focus, so typing goes on in the text area
+ * while it is shown. Up and Down move through the list, Escape closes it,
+ * Enter is left to AutoComplete, which calls {@link #commit}. It closes as
+ * well when the caret leaves the end of the word or the text area loses the
+ * focus.
+ * </p>
+ */
+public class CompletionPopup {
+
+    private static final int ROWS = 8;
+    private static final String[] SOURCES = {"keyword", "word", "symbol"};
+
+    private final JTextArea textArea;
+    private final Consumer<FuzzyCompleter.Suggestion> committed;
+    private final DefaultListModel<FuzzyCompleter.Suggestion> model = new DefaultListModel<>();
+    private final JList<FuzzyCompleter.Suggestion> list = new JList<>(model);
+    private JWindow window;
+
+    //The word being completed, [start, end)
+    private int start;
+    private int end = -1;
+
+    private final CaretListener caretListener = e -> {
+        if (e.getDot() != e.getMark() || e.getDot() != end) {
+            hide();
+        }
+    };
+    private final FocusAdapter focusListener = new FocusAdapter() {
+        @Override
+        public void focusLost(FocusEvent e) {
+            hide();
+        }
+    };
+
+    /**
+     * @param textArea the text area typed in
+     * @param committed gets the suggestion chosen, after it replaced the word
+     */
+    public CompletionPopup(JTextArea textArea, Consumer<FuzzyCompleter.Suggestion> committed) {
+        this.textArea = textArea;
+        this.committed = committed;
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        list.setVisibleRowCount(ROWS);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected, boolean focus) {
+                FuzzyCompleter.Suggestion s = (FuzzyCompleter.Suggestion) value;
+                JLabel label = (JLabel) super.getListCellRendererComponent(l, s.word, index, selected, focus);
+                label.setToolTipText(SOURCES[s.source]);
+                if (!selected && s.source != FuzzyCompleter.Suggestion.KEYWORD) {
+                    label.setForeground(Color.DARK_GRAY);
+                }
+                return label;
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    commit();
+                }
+            }
+        });
+
+        bind("UP", "completion-up", DefaultEditorKit.upAction, -1);
+        bind("DOWN", "completion-down", DefaultEditorKit.downAction, 1);
+        bind("ESCAPE", "completion-hide", null, 0);
+        textArea.addCaretListener(caretListener);
+        textArea.addFocusListener(focusListener);
+    }
+
+    //While shown the key moves the selection by delta, or closes the list for 0, else it does what it did
+    private void bind(String key, String name, String fallback, int delta) {
+        textArea.getInputMap().put(KeyStroke.getKeyStroke(key), name);
+        textArea.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (isVisible()) {
+                    if (delta == 0) {
+                        hide();
+                    } else {
+                        int i = Math.floorMod(list.getSelectedIndex() + delta, model.getSize());
+                        list.setSelectedIndex(i);
+                        list.ensureIndexIsVisible(i);
+                    }
+                } else if (fallback != null) {
+                    Action action = textArea.getActionMap().get(fallback);
+                    if (action != null) {
+                        action.actionPerformed(e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells where the word being typed ends now, before the caret moves
+     * there, so the list stays open.
+     *
+     * @param end the end of the word
+     */
+    public void follow(int end) {
+        this.end = end;
+    }
+
+    /**
+     * Shows suggestions for the word [start, end), if the caret is still
+     * at its end.
+     *
+     * @param start the start of the word
+     * @param end the end of the word
+     * @param result the suggestions
+     */
+    public void show(int start, int end, FuzzyCompleter.Result result) {
+        if (result.suggestions.isEmpty() || textArea.getCaretPosition() != end || !textArea.isShowing()) {
+            hide();
+            return;
+        }
+        this.start = start;
+        this.end = end;
+        model.clear();
+        for (FuzzyCompleter.Suggestion s : result.suggestions) {
+            model.addElement(s);
+        }
+        list.setSelectedIndex(0);
+        list.ensureIndexIsVisible(0);
+        //More may come with the next key
+        list.setToolTipText(result.complete ? null : "Partial results");
+
+        Rectangle2D at;
+        try {
+            at = textArea.modelToView2D(start);
+        } catch (BadLocationException ex) {
+            hide();
+            return;
+        }
+        if (window == null) {
+            Window owner = SwingUtilities.getWindowAncestor(textArea);
+            window = new JWindow(owner);
+            window.setFocusableWindowState(false);
+            window.add(new JScrollPane(list));
+        }
+        Point p = new Point((int) at.getX(), (int) at.getMaxY());
+        SwingUtilities.convertPointToScreen(p, textArea);
+        window.pack();
+        window.setLocation(p);
+        window.setVisible(true);
+    }
+
+    /**
+     * @return whether the list is shown
+     */
+    public boolean isVisible() {
+        return window != null && window.isVisible();
+    }
+
+    /**
+     * Closes the list.
+     */
+    public void hide() {
+        if (window != null) {
+            window.setVisible(false);
+        }
+    }
+
+    /**
+     * Replaces the word with the selected suggestion and closes the list.
+     */
+    public void commit() {
+        FuzzyCompleter.Suggestion s = list.getSelectedValue();
+        hide();
+        if (s == null) {
+            return;
+        }
+        textArea.replaceRange(s.word, start, end);
+        textArea.setCaretPosition(start + s.word.length());
+        committed.accept(s);
+    }
+
+    /**
+     * Closes the list for good and stops following the text area.
+     */
+    public void dispose() {
+        textArea.removeCaretListener(caretListener);
+        textArea.removeFocusListener(focusListener);
+        if (window != null) {
+            window.dispose();
+            window = null;
+        }
+    }
+}
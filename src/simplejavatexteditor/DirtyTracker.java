@@ -0,0 +1,57 @@
+package simplejavatexteditor;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * <h1>Tracks whether a tab has changed since it was last saved</h1>
+ *
+ * <p>
+ * Every insert or remove bumps a modification count. A save records the
+ * count of the text it wrote, so the tab is dirty again only if it was
+ * edited after that snapshot was taken. The counts are written on the EDT
+ * and read by the auto-save thread.
+ * </p>
+ */
+public class DirtyTracker implements DocumentListener {
+
+    private volatile long modCount;
+    private volatile long savedModCount;
+
+    /**
+     * @return the number of edits made to the document so far
+     */
+    public long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @return true if the document changed since the last save
+     */
+    public boolean isDirty() {
+        return modCount != savedModCount;
+    }
+
+    /**
+     * Records that the text as of the given modification count is on disk.
+     *
+     * @param modCount the count taken when the saved text was copied
+     */
+    public void markSaved(long modCount) {
+        savedModCount = modCount;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        modCount++;
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        modCount++;
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+}
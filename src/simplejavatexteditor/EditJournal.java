@@ -0,0 +1,607 @@
+package simplejavatexteditor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * <h1>Write-ahead journal of the edits made to one tab</h1>
+ *
+ * <p>
+ * Every insert and remove is appended to a side file in {@link #DIRECTORY}
+ * as it happens, so the cost of an edit does not depend on the size of the
+ * document. The header names the file the edits apply to and records its
+ * size, modification time and length in chars at the last full save.
+ * Each record carries a CRC, replay stops at the first torn record.
+ * </p>
+ *
+ * <p>
+ * A full save compacts the journal: records up to the saved snapshot are
+ * dropped and the header is rewritten for the new base. Journals left behind
+ * by a crash (or by quitting with unsaved edits) are found on the next start
+ * by {@link #findRecoverable()} and replayed onto the freshly loaded file.
+ * </p>
+ *
+ * <p>
+ * Every running editor keeps its journals in a directory of its own under
+ * {@link #DIRECTORY} and holds a lock on it until it exits. Only journals in
+ * directories whose lock is free, left by an editor that is gone, are
+ * recovered, so a second editor never offers, deletes or appends to the
+ * journals of one that is still running.
+ * </p>
+ *
+ * <p>
+ * An edit only adds its record to a buffer in memory, the file is written
+ * on the flusher thread, so typing never waits for the disk. At most
+ * {@link #FLUSH_DELAY_MS} after an edit its record is written and forced,
+ * so a crash of the editor or of the machine loses at most the edits of the
+ * last second. Closing the journal,
+ * and quitting, which closes every open journal from a shutdown hook,
+ * write and force whatever is left, so nothing is lost then.
+ * </p>
+ */
+public class EditJournal implements DocumentListener {
+
+    static final File DIRECTORY = new File(System.getProperty("ste.journalDir",
+            System.getProperty("user.home") + File.separator + ".simplejavatexteditor" + File.separator + "journal"));
+
+    private static final int MAGIC = 0x53544A31;
+    private static final byte INSERT = 'I';
+    private static final byte REMOVE = 'R';
+    static final long FLUSH_DELAY_MS = 1000;
+
+    //Buffered records reach the disk at most FLUSH_DELAY_MS after they were written
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Edit Journal Flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    //Journals with an open file, written out when the editor quits
+    private static final Set<EditJournal> OPEN = ConcurrentHashMap.newKeySet();
+
+    //Held in every editor's directory while it runs
+    private static final String LOCK = "lock";
+    private static File session;
+    //Kept open, closing it would release the lock
+    private static FileChannel sessionLock;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (EditJournal journal : OPEN) {
+                journal.close();
+            }
+            removeSession();
+        }, "Edit Journal Shutdown"));
+    }
+
+    private final File journalFile;
+    private File target;
+    private long baseModified;
+    private long baseSize;
+    private int baseChars;
+
+    //Held while the file is written, by the flusher, a save or a closed tab, never by append()
+    private final Object io = new Object();
+    private FileOutputStream out;
+    //The channel under out, to force records to the disk
+    private FileChannel channel;
+    private int headerSize;
+    //Logical offsets of the records, they keep growing across compactions
+    private long fileStart;
+    private long flushed;
+
+    //The monitor guards these, append() takes it on the EDT and it is never held while the file is written
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ByteArrayOutputStream draining = new ByteArrayOutputStream();
+    private long written;
+    private boolean flushScheduled;
+    private volatile boolean broken;
+
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+
+    //Records read back from disk, only set for recovered journals
+    private List<Edit> recovered;
+
+    private record Edit(byte type, int offset, int length, String text) {}
+
+    private EditJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Starts a journal for a tab. Nothing is written until the first edit.
+     *
+     * @param target the file the tab is saved to, or null for an untitled tab
+     * @param baseChars the length of the document the edits start from
+     * @return the journal
+     */
+    public static EditJournal create(File target, int baseChars) {
+        File file = new File(session(), System.currentTimeMillis() + "-" + System.nanoTime() + ".journal");
+        EditJournal journal = new EditJournal(file);
+        journal.setBase(target, baseChars);
+        return journal;
+    }
+
+    //This editor's directory, created and locked on first use
+    private static synchronized File session() {
+        if (session == null) {
+            session = new File(DIRECTORY, ProcessHandle.current().pid() + "-" + System.currentTimeMillis());
+            session.mkdirs();
+            try {
+                sessionLock = FileChannel.open(new File(session, LOCK).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                sessionLock.lock();
+            } catch (IOException ex) {
+                //Still journaled, but another editor may take the journals for a crash's
+                ex.printStackTrace();
+            }
+        }
+        return session;
+    }
+
+    //Deletes this editor's directory on exit, unless journals with unsaved edits are left in it
+    private static synchronized void removeSession() {
+        if (session == null) {
+            return;
+        }
+        File[] left = session.listFiles((dir, name) -> name.endsWith(".journal"));
+        if (left != null && left.length == 0) {
+            new File(session, LOCK).delete();
+            try {
+                if (sessionLock != null) {
+                    sessionLock.close();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            session.delete();
+        }
+    }
+
+    /**
+     * Takes the journals of every editor that is no longer running into this
+     * editor's directory and reads those that still hold edits. Journals
+     * without edits or with a damaged header are deleted. Journals of a
+     * running editor are left alone.
+     *
+     * @return the journals that can be replayed
+     */
+    public static List<EditJournal> findRecoverable() {
+        List<EditJournal> found = new ArrayList<>();
+        File own = session();
+        File[] dirs = DIRECTORY.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return found;
+        }
+        List<File> files = new ArrayList<>();
+        for (File dir : dirs) {
+            if (!dir.equals(own)) {
+                adopt(dir, own, files);
+            }
+        }
+        for (File file : files) {
+            EditJournal journal = new EditJournal(file);
+            try {
+                journal.read();
+            } catch (IOException ex) {
+                journal.recovered = null;
+            }
+            if (journal.recovered == null || journal.recovered.isEmpty()) {
+                file.delete();
+            } else {
+                found.add(journal);
+            }
+        }
+        return found;
+    }
+
+    //Moves the journals out of the directory of an editor that is gone, the lock tells it is gone
+    private static void adopt(File dir, File own, List<File> adopted) {
+        File lockFile = new File(dir, LOCK);
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+            if (channel.tryLock() == null) {
+                //Still running
+                return;
+            }
+            File[] files = dir.listFiles((d, name) -> name.endsWith(".journal"));
+            if (files != null) {
+                for (File file : files) {
+                    File moved = new File(own, file.getName());
+                    Files.move(file.toPath(), moved.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    adopted.add(moved);
+                }
+            }
+            //Half-written compactions and the lock go with the directory
+            File[] rest = dir.listFiles();
+            if (rest != null) {
+                for (File file : rest) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        } catch (NoSuchFileException gone) {
+            //Another editor took the journals first, or this one never got to lock
+        } catch (IOException | OverlappingFileLockException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void read() throws IOException {
+        long length = journalFile.length();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journalFile))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a journal: " + journalFile);
+            }
+            String path = in.readUTF();
+            target = path.isEmpty() ? null : new File(path);
+            baseModified = in.readLong();
+            baseSize = in.readLong();
+            baseChars = in.readInt();
+            headerSize = (int) (length - in.available());
+
+            recovered = new ArrayList<>();
+            while (true) {
+                byte[] body;
+                int checksum;
+                try {
+                    int len = in.readInt();
+                    if (len < 9 || len > in.available()) {
+                        break;
+                    }
+                    body = new byte[len];
+                    in.readFully(body);
+                    checksum = in.readInt();
+                } catch (EOFException torn) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                written = length - in.available() - headerSize;
+                flushed = written;
+                DataInputStream r = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = r.readByte();
+                int offset = r.readInt();
+                int count = r.readInt();
+                String text = null;
+                if (type == INSERT) {
+                    char[] chars = new char[count];
+                    for (int i = 0; i < count; i++) {
+                        chars[i] = r.readChar();
+                    }
+                    text = new String(chars);
+                }
+                recovered.add(new Edit(type, offset, count, text));
+            }
+        }
+    }
+
+    /**
+     * @return the file the journaled edits apply to, or null for an untitled tab
+     */
+    public File getTarget() {
+        return target;
+    }
+
+    /**
+     * Applies recovered edits to a document holding the base text. Refuses
+     * if the file changed since the journal was started.
+     *
+     * @param doc the document, loaded from {@link #getTarget()}
+     * @return true if every edit was replayed
+     */
+    public boolean replay(Document doc) {
+        if (recovered == null || doc.getLength() != baseChars) {
+            return false;
+        }
+        if (target != null && (target.lastModified() != baseModified || target.length() != baseSize)) {
+            return false;
+        }
+        try {
+            for (Edit edit : recovered) {
+                if (edit.type() == INSERT) {
+                    doc.insertString(edit.offset(), edit.text(), null);
+                } else {
+                    doc.remove(edit.offset(), edit.length());
+                }
+            }
+        } catch (BadLocationException ex) {
+            return false;
+        } finally {
+            recovered = null;
+        }
+        return true;
+    }
+
+    private void setBase(File target, int baseChars) {
+        this.target = target;
+        this.baseChars = baseChars;
+        this.baseModified = target != null ? target.lastModified() : 0;
+        this.baseSize = target != null ? target.length() : 0;
+    }
+
+    private void writeHeader(DataOutputStream header) throws IOException {
+        header.writeInt(MAGIC);
+        header.writeUTF(target != null ? target.getAbsolutePath() : "");
+        header.writeLong(baseModified);
+        header.writeLong(baseSize);
+        header.writeInt(baseChars);
+    }
+
+    //Under io
+    private void open() throws IOException {
+        journalFile.getParentFile().mkdirs();
+        boolean fresh = !journalFile.exists();
+        if (!fresh) {
+            //Cut off a torn record left by a crash before appending after it
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(headerSize + flushed - fileStart);
+            }
+        }
+        out = new FileOutputStream(journalFile, true);
+        channel = out.getChannel();
+        OPEN.add(this);
+        if (fresh) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            writeHeader(new DataOutputStream(header));
+            header.writeTo(out);
+            headerSize = header.size();
+            fileStart = flushed;
+        }
+    }
+
+    //Under io, writes the records append() buffered, opening the file for the first
+    private void drain() throws IOException {
+        ByteArrayOutputStream bytes;
+        synchronized (this) {
+            if (broken || pending.size() == 0) {
+                return;
+            }
+            bytes = pending;
+            pending = draining;
+            draining = bytes;
+        }
+        if (out == null) {
+            open();
+        }
+        bytes.writeTo(out);
+        flushed += bytes.size();
+        bytes.reset();
+    }
+
+    //Under io
+    private void closeFile() throws IOException {
+        OPEN.remove(this);
+        try {
+            channel.force(false);
+        } finally {
+            out.close();
+            out = null;
+            channel = null;
+        }
+    }
+
+    //Big-endian, as DataInputStream reads it back
+    private static void writeInt(ByteArrayOutputStream to, int v) {
+        to.write(v >>> 24);
+        to.write(v >>> 16);
+        to.write(v >>> 8);
+        to.write(v);
+    }
+
+    //Only buffers the record, the flusher writes it
+    private synchronized void append(byte type, int offset, int length, String text) {
+        if (broken) {
+            return;
+        }
+        record.reset();
+        record.write(type);
+        writeInt(record, offset);
+        writeInt(record, length);
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                record.write(c >>> 8);
+                record.write(c);
+            }
+        }
+        byte[] body = record.toByteArray();
+        crc.reset();
+        crc.update(body);
+
+        writeInt(pending, body.length);
+        pending.write(body, 0, body.length);
+        writeInt(pending, (int) crc.getValue());
+        written += 8 + body.length;
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            FLUSHER.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A journal that missed a record cannot be replayed correctly any more,
+     * so it is removed and stays off for the rest of the session.
+     */
+    private void fail(IOException ex) {
+        ex.printStackTrace();
+        discard();
+    }
+
+    //On the flusher, appends keep going while the disk is busy
+    private void flush() {
+        synchronized (this) {
+            flushScheduled = false;
+        }
+        synchronized (io) {
+            try {
+                drain();
+                if (out != null) {
+                    channel.force(false);
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Writes every record to the disk and closes the file, keeping it, so
+     * its edits are offered again on the next start. An edit after this
+     * opens the file again.
+     */
+    public void close() {
+        synchronized (io) {
+            try {
+                drain();
+                if (out != null) {
+                    closeFile();
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Marks the current end of the journal. Take it together with the copy
+     * of the text that is about to be saved.
+     *
+     * @return the position to pass to {@link #compact}
+     */
+    public synchronized long mark() {
+        return written;
+    }
+
+    /**
+     * Drops every record before the mark once the text it was taken with is
+     * safely saved. Records appended since the mark are kept. Edits go on
+     * while this reads and rewrites the file, they are written after it.
+     *
+     * @param mark the position returned by {@link #mark()}
+     * @param target the file the text was saved to
+     * @param baseChars the length of the saved text
+     */
+    public void compact(long mark, File target, int baseChars) {
+        synchronized (io) {
+            if (broken || mark < fileStart) {
+                //A newer save already compacted past this snapshot
+                return;
+            }
+            try {
+                //The records after the mark may still be buffered
+                drain();
+                byte[] tail = new byte[(int) (flushed - mark)];
+                if (out != null) {
+                    //Replaced or deleted below, so not forced
+                    OPEN.remove(this);
+                    out.close();
+                    out = null;
+                    channel = null;
+                }
+                if (tail.length > 0) {
+                    try (RandomAccessFile raf = new RandomAccessFile(journalFile, "r")) {
+                        raf.seek(headerSize + mark - fileStart);
+                        raf.readFully(tail);
+                    }
+                }
+                setBase(target, baseChars);
+                fileStart = mark;
+
+                if (tail.length == 0) {
+                    //Nothing newer than the save, the file is recreated on the next edit
+                    journalFile.delete();
+                    return;
+                }
+                File temp = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+                try (FileOutputStream file = new FileOutputStream(temp);
+                     DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(file))) {
+                    writeHeader(compacted);
+                    headerSize = compacted.size();
+                    compacted.write(tail);
+                    //On the disk before it replaces the journal, a crash keeps one or the other
+                    compacted.flush();
+                    file.getChannel().force(false);
+                }
+                Files.move(temp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                open();
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the journal, for tabs closed by the user.
+     */
+    public void discard() {
+        synchronized (this) {
+            broken = true;
+            pending.reset();
+        }
+        synchronized (io) {
+            OPEN.remove(this);
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                    channel = null;
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            journalFile.delete();
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        try {
+            String text = e.getDocument().getText(e.getOffset(), e.getLength());
+            append(INSERT, e.getOffset(), e.getLength(), text);
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        append(REMOVE, e.getOffset(), e.getLength(), null);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+}
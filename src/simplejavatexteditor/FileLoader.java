@@ -0,0 +1,154 @@
+package simplejavatexteditor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import javax.swing.JLabel;
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * <h1>Loads a file into a tab without blocking the event dispatch thread</h1>
+ *
+ * <p>
+ * The file is decoded on a worker thread in chunks of {@link #CHUNK} chars.
+ * Every batch of chunks that reaches the EDT is appended to the tab's
+ * document with a single insert, so the first screen is visible almost
+ * immediately. Files are read as UTF-8, the encoding {@link FileSaver}
+ * writes, and line endings are normalized to '\n' on the way in.
+ * </p>
+ *
+ * <p>
+ * Large files are not read at all: the worker builds the page index of a
+ * {@link PagedFileContent} and hands back a {@link LargeFileDocument}.
+ * Their line endings are normalized too, as the pages are decoded. Progress is shown in the status bar, and calling {@code cancel(true)}
+ * (for example when the tab is closed) stops the load. A load that fails
+ * ends in the failure callback, so the tab never waits for it.
+ * </p>
+ */
+public class FileLoader extends SwingWorker<Document, Integer> {
+
+    static final int CHUNK = 16 * 1024;
+
+    private final File file;
+    private final Document target;
+    private final boolean large;
+    private final JLabel statusLabel;
+    private final Consumer<Document> onLoaded;
+    private final Consumer<Exception> onFailed;
+
+    //Chunks are queued here rather than published, done() may run before
+    //the last process() call and has to drain what is left itself
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param file the file to load
+     * @param target the document the text is appended to, unused for a large file
+     * @param large whether to open the file in large file mode
+     * @param statusLabel where progress is reported
+     * @param onLoaded called on the EDT with the loaded document, unless cancelled
+     * @param onFailed called on the EDT instead if the file could not be read,
+     * the target may then hold part of the text
+     */
+    public FileLoader(File file, Document target, boolean large, JLabel statusLabel, Consumer<Document> onLoaded,
+            Consumer<Exception> onFailed) {
+        this.file = file;
+        this.target = target;
+        this.large = large;
+        this.statusLabel = statusLabel;
+        this.onLoaded = onLoaded;
+        this.onFailed = onFailed;
+    }
+
+    @Override
+    protected Document doInBackground() throws Exception {
+        if (large) {
+            int[] last = {-1};
+            PagedFileContent content = PagedFileContent.open(file, p -> {
+                if (p != last[0]) {
+                    last[0] = p;
+                    publish(p);
+                }
+            });
+            return new LargeFileDocument(content);
+        }
+
+        long size = Math.max(1, file.length());
+        try (FileInputStream in = new FileInputStream(file);
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            FileChannel channel = in.getChannel();
+            char[] buffer = new char[CHUNK];
+            boolean lastWasCR = false;
+            int n;
+            while (!isCancelled() && (n = reader.read(buffer)) != -1) {
+                //Turn "\r\n" and lone '\r' into '\n' in place
+                int len = 0;
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (c == '\n' && lastWasCR) {
+                        lastWasCR = false;
+                        continue;
+                    }
+                    lastWasCR = c == '\r';
+                    buffer[len++] = lastWasCR ? '\n' : c;
+                }
+                pending.add(new String(buffer, 0, len));
+                publish((int) Math.min(100, 100 * channel.position() / size));
+            }
+        }
+        return target;
+    }
+
+    @Override
+    protected void process(List<Integer> progress) {
+        if (isCancelled()) {
+            return;
+        }
+        drain();
+        statusLabel.setText(" Loading " + file.getName() + "... " + progress.get(progress.size() - 1) + "%");
+    }
+
+    /**
+     * Appends every queued chunk to the document in one insert.
+     */
+    private void drain() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        String chunk;
+        while ((chunk = pending.poll()) != null) {
+            batch.append(chunk);
+        }
+        try {
+            target.insertString(target.getLength(), batch.toString(), null);
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void done() {
+        if (isCancelled()) {
+            return;
+        }
+        drain();
+        Document doc;
+        try {
+            doc = get();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            statusLabel.setText(" Could not open " + file.getName());
+            onFailed.accept(ex);
+            return;
+        }
+        onLoaded.accept(doc);
+    }
+}
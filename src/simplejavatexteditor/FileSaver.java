@@ -0,0 +1,171 @@
+package simplejavatexteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Writes a document to disk atomically</h1>
+ *
+ * <p>
+ * A {@link PieceTableContent.Snapshot} of the document is taken under its
+ * read lock, which is O(1), and the lock is let go. The text is then read
+ * from the snapshot in windows of {@link #CHUNK} chars through a
+ * {@link Segment}, encoded as UTF-8 into a direct buffer and written with a
+ * {@link FileChannel} to a temp file next to the target, while the document
+ * stays free for edits.
+ * The temp file is optionally forced to disk and then renamed over the
+ * target, so other programs see either the old file or the new one and
+ * never a half-written one. No copy of the whole text is ever made.
+ * A replaced file keeps its permissions, a new one gets those the umask
+ * leaves.
+ * </p>
+ */
+public class FileSaver {
+
+    static final int CHUNK = 32 * 1024;
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Saves the document. The document is read-locked only to take the
+     * snapshot, not while the text is encoded and written.
+     *
+     * @param doc the document to save
+     * @param target the file to replace
+     * @param force whether to fsync the data before the rename
+     * @param onSnapshot run under the read lock before writing, to record
+     * what state of the document is being saved. May be null
+     * @throws IOException if the file could not be written
+     */
+    public static void save(Document doc, File target, boolean force, Runnable onSnapshot) throws IOException {
+        Path path = target.toPath().toAbsolutePath();
+        boolean exists = Files.exists(path);
+        if (exists) {
+            path = path.toRealPath();
+        }
+        //A private temp file is given the permissions of the file it replaces
+        Path temp = exists ? Files.createTempFile(path.getParent(), "." + path.getFileName() + "-", ".tmp")
+                : createSibling(path);
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                PieceTableContent.Snapshot[] text = new PieceTableContent.Snapshot[1];
+                doc.render(() -> {
+                    if (onSnapshot != null) {
+                        onSnapshot.run();
+                    }
+                    text[0] = PieceTableContent.snapshot(doc);
+                });
+                write(text[0], channel);
+                if (force) {
+                    channel.force(true);
+                }
+            }
+            if (exists) {
+                copyPermissions(path, temp);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static void write(PieceTableContent.Snapshot text, FileChannel channel) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int length = text.length();
+        int offset = 0;
+
+        try {
+            while (offset < length) {
+                text.getChars(offset, Math.min(CHUNK, length - offset), segment);
+                //A high surrogate ending the window is left in it by the encoder, the next window starts with it
+                int read = encode(encoder, segment, offset + segment.count == length, out, channel);
+                if (read == 0) {
+                    //A piece holding only the high half of a pair, read it together with the next char
+                    segment.setPartialReturn(false);
+                    text.getChars(offset, 2, segment);
+                    segment.setPartialReturn(true);
+                    read = encode(encoder, segment, offset + 2 == length, out, channel);
+                }
+                offset += read;
+            }
+        } catch (BadLocationException ex) {
+            throw new IOException(ex);
+        }
+
+        if (length == 0) {
+            encoder.encode(CharBuffer.allocate(0), out, true);
+        }
+        while (encoder.flush(out).isOverflow()) {
+            drain(out, channel);
+        }
+        drain(out, channel);
+    }
+
+    //Returns the number of chars consumed
+    private static int encode(CharsetEncoder encoder, Segment segment, boolean last, ByteBuffer out,
+            FileChannel channel) throws IOException {
+        CharBuffer in = CharBuffer.wrap(segment.array, segment.offset, segment.count);
+        while (encoder.encode(in, out, last).isOverflow()) {
+            drain(out, channel);
+        }
+        return in.position() - segment.offset;
+    }
+
+    private static void drain(ByteBuffer out, FileChannel channel) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    //Created without attributes, so the umask applies, which createTempFile overrides
+    private static Path createSibling(Path path) throws IOException {
+        while (true) {
+            Path temp = path.resolveSibling("." + path.getFileName() + "-"
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.newByteChannel(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return temp;
+            } catch (FileAlreadyExistsException ex) {
+                //Taken, try another name
+            }
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException | IOException ex) {
+            //Not a POSIX file system, the temp file keeps its defaults
+        }
+    }
+}
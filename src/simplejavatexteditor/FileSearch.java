@@ -0,0 +1,366 @@
+package simplejavatexteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * <h1>Searches every file under a directory for a string</h1>
+ *
+ * <p>
+ * One task per directory and per file on a work-stealing pool with a
+ * thread per core, so a big tree keeps every core busy and a directory
+ * with many files is shared out. A file is read through a
+ * {@link FileChannel} in chunks, into a direct buffer each thread reuses,
+ * and decoded as UTF-8 into a window of chars, also reused. The window is
+ * searched, then its end is kept, so a match or a line cut by the window
+ * is found whole in the next one. A thread holds the same small buffers
+ * however large the files are, and no file stays mapped or open after its
+ * search. Files that are too large, or that have a NUL byte near their
+ * start, which text files never have, are skipped.
+ * </p>
+ *
+ * <p>
+ * Hits are handed to the EDT in batches while the search goes on, the
+ * first ones as soon as they are found. Offsets are those of the text as
+ * the editor loads it, with line ends turned into '\n'.
+ * </p>
+ */
+public class FileSearch {
+
+    static final long MAX_FILE_SIZE = 32L * 1024 * 1024;
+    //Bytes read at a time
+    static final int CHUNK = 64 * 1024;
+    //Chars searched at a time
+    static final int WINDOW = 256 * 1024;
+    //Bytes looked at to tell a binary file
+    static final int SNIFF = 8 * 1024;
+    static final int MAX_HITS_PER_FILE = 1000;
+    static final int MAX_HITS = 20000;
+    //The most chars of a line shown with a hit
+    static final int MAX_LINE = 200;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    //Per thread of the pool: the decoder, the bytes read and the decoded window
+    private static final ThreadLocal<CharsetDecoder> DECODER = ThreadLocal.withInitial(()
+            -> StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    private static final ThreadLocal<ByteBuffer> BYTES = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK));
+    private static final ThreadLocal<char[]> TEXT = ThreadLocal.withInitial(() -> new char[WINDOW]);
+
+    /**
+     * A line with a match
+     */
+    public static final class Hit {
+
+        public final File file;
+        //Of the match, in chars
+        public final int offset;
+        //From 1
+        public final int line;
+        public final String text;
+
+        Hit(File file, int offset, int line, String text) {
+            this.file = file;
+            this.offset = offset;
+            this.line = line;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + ":" + line + ": " + text;
+        }
+    }
+
+    private final Path root;
+    private final TextSearch search;
+    private final Consumer<List<Hit>> found;
+
+    private final ConcurrentLinkedQueue<Hit> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger searched = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    /**
+     * @param root the directory
+     * @param search what to find
+     * @param found gets the hits on the EDT, a batch at a time
+     */
+    public FileSearch(File root, TextSearch search, Consumer<List<Hit>> found) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.search = search;
+        this.found = found;
+    }
+
+    /**
+     * Starts the search in the background.
+     *
+     * @param done run on the EDT after the last hit, also when cancelled
+     */
+    public void start(Runnable done) {
+        POOL.execute(() -> {
+            try {
+                new Walk(root).invoke();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+            SwingUtilities.invokeLater(() -> {
+                flush();
+                done.run();
+            });
+        });
+    }
+
+    /**
+     * Stops the search, files being searched are finished.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return whether it was cancelled, or stopped at MAX_HITS
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the files searched so far
+     */
+    public int getSearched() {
+        return searched.get();
+    }
+
+    /**
+     * @return the files skipped so far, as binary, too large or unreadable
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    //On the EDT
+    private void flush() {
+        flushScheduled.set(false);
+        List<Hit> batch = new ArrayList<>();
+        for (Hit hit; (hit = pending.poll()) != null; ) {
+            batch.add(hit);
+        }
+        if (!batch.isEmpty()) {
+            found.accept(batch);
+        }
+    }
+
+    private void add(Hit hit) {
+        pending.add(hit);
+        if (hits.incrementAndGet() >= MAX_HITS) {
+            cancelled = true;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    private class Walk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+
+        Walk(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    if (cancelled) {
+                        break;
+                    }
+                    if (child.getFileName().toString().startsWith(".")) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        tasks.add(new Walk(child));
+                    } else if (attrs.isRegularFile()) {
+                        tasks.add(new RecursiveAction() {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            protected void compute() {
+                                searchFile(child, attrs.size());
+                            }
+                        });
+                    }
+                }
+            } catch (IOException ex) {
+                //Unreadable directory, left out
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private void searchFile(Path path, long size) {
+        if (cancelled) {
+            return;
+        }
+        if (size > MAX_FILE_SIZE) {
+            skipped.incrementAndGet();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_FILE_SIZE || !search(path.toFile(), channel)) {
+                skipped.incrementAndGet();
+                return;
+            }
+        } catch (IOException | RuntimeException ex) {
+            //Deleted, unreadable or changed size meanwhile
+            skipped.incrementAndGet();
+            return;
+        }
+        searched.incrementAndGet();
+    }
+
+    private static boolean isBinary(ByteBuffer bytes) {
+        int n = Math.min(bytes.limit(), SNIFF);
+        for (int i = 0; i < n; i++) {
+            if (bytes.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Reads and searches a file a window at a time, returns false if it is binary
+    private boolean search(File file, FileChannel channel) throws IOException {
+        int m = search.length();
+        char[] a = TEXT.get();
+        //A window keeps a match with a line on both sides, and has room for as much again
+        if (a.length < 2 * (m + 2 * MAX_LINE)) {
+            //Only for a very long search text, so it is not kept
+            a = new char[2 * (m + 2 * MAX_LINE)];
+        }
+        ByteBuffer bytes = BYTES.get();
+        bytes.clear();
+        CharsetDecoder decoder = DECODER.get();
+        decoder.reset();
+
+        //The window holds a[0, n), which starts at base in the text
+        int n = 0;
+        long base = 0;
+        //Where the next match may start, and where lines were counted to
+        int next = 0;
+        int counted = 0;
+        int line = 1;
+        int inFile = 0;
+        boolean input = true;
+        boolean end = false;
+        boolean sniffed = false;
+        boolean lastWasCR = false;
+        while (!cancelled) {
+            //Decode until the window is full or the file ends
+            boolean full = false;
+            while (!full && !end) {
+                if (input && bytes.hasRemaining()) {
+                    input = channel.read(bytes) >= 0;
+                }
+                bytes.flip();
+                if (!sniffed) {
+                    sniffed = true;
+                    if (isBinary(bytes)) {
+                        return false;
+                    }
+                }
+                CharBuffer out = CharBuffer.wrap(a, n, a.length - n);
+                CoderResult result = decoder.decode(bytes, out, !input);
+                //Full also when a char needs two and one is left
+                full = result.isOverflow();
+                if (!input && result.isUnderflow()) {
+                    end = decoder.flush(out).isUnderflow();
+                    full = !end;
+                }
+                bytes.compact();
+                //Turn "\r\n" and lone '\r' into '\n' in place, as FileLoader does
+                int decoded = out.position();
+                for (int i = n; i < decoded; i++) {
+                    char c = a[i];
+                    if (c == '\n' && lastWasCR) {
+                        lastWasCR = false;
+                        continue;
+                    }
+                    lastWasCR = c == '\r';
+                    a[n++] = lastWasCR ? '\n' : c;
+                }
+            }
+
+            //Before the end of the file, a match needs the rest of its line in the window
+            int limit = end ? n : n - MAX_LINE;
+            for (int i = search.indexOf(a, next, limit); i >= 0; i = search.indexOf(a, next, limit)) {
+                for (; counted < i; counted++) {
+                    if (a[counted] == '\n') {
+                        line++;
+                    }
+                }
+                int start = i;
+                while (start > 0 && a[start - 1] != '\n' && i - start < MAX_LINE) {
+                    start--;
+                }
+                int stop = i;
+                while (stop < n && a[stop] != '\n' && stop - start < MAX_LINE) {
+                    stop++;
+                }
+                add(new Hit(file, (int) (base + i), line, new String(a, start, stop - start).trim()));
+                if (++inFile == MAX_HITS_PER_FILE || cancelled) {
+                    return true;
+                }
+                next = i + m;
+            }
+            if (end) {
+                return true;
+            }
+
+            //Keep the chars a match may still start at, and a line before them
+            next = Math.max(next, limit - m + 1);
+            int drop = Math.max(0, next - MAX_LINE);
+            for (; counted < drop; counted++) {
+                if (a[counted] == '\n') {
+                    line++;
+                }
+            }
+            System.arraycopy(a, drop, a, 0, n - drop);
+            n -= drop;
+            next -= drop;
+            counted -= drop;
+            base += drop;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,407 @@
+package simplejavatexteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import javax.swing.SwingUtilities;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Notices when an open file is changed by another program</h1>
+ *
+ * <p>
+ * A single thread watches the parent directory of every open file with a
+ * {@link WatchService}. Events are allowed to settle for {@link #SETTLE_MS}
+ * (compilers and other editors often write a file in several steps), then
+ * the size and modification time of each touched file are compared with
+ * the last known ones, and if they differ, a CRC32C of the content as well.
+ * Only real content changes are reported, on the EDT.
+ * </p>
+ *
+ * <p>
+ * Saves made by the editor itself are bracketed with {@link #beginSave} and
+ * {@link #endSave} so they are not reported back.
+ * </p>
+ */
+public class FileWatcher {
+
+    static final long SETTLE_MS = 150;
+    private static final int HASH_BUFFER = 64 * 1024;
+
+    private final WatchService service;
+    private final Consumer<Path> onChange;
+    private final Map<Path, Known> known = new HashMap<>();
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+    private final ConcurrentLinkedQueue<Path> toHash = new ConcurrentLinkedQueue<>();
+
+    //What the file looked like the last time it was read or saved by the editor
+    private static class Known {
+        int tabs;
+        int saving;
+        long size;
+        long modified;
+        long hash = -1;
+    }
+
+    /**
+     * Starts the watcher thread. If the file system cannot be watched,
+     * nothing is ever reported.
+     *
+     * @param onChange called on the EDT with the path of a changed file
+     */
+    public FileWatcher(Consumer<Path> onChange) {
+        this.onChange = onChange;
+        service = newWatchService();
+        if (service != null) {
+            Thread thread = new Thread(this::watchLoop, "File Watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static WatchService newWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Starts watching a file opened in a tab.
+     *
+     * @param file the file
+     */
+    public synchronized void watch(File file) {
+        if (service == null) {
+            return;
+        }
+        Path path = key(file);
+        Known k = known.get(path);
+        if (k == null) {
+            k = new Known();
+            known.put(path, k);
+            remember(path, k);
+            try {
+                Path dir = path.getParent();
+                if (!directories.containsKey(dir)) {
+                    directories.put(dir, dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        k.tabs++;
+    }
+
+    /**
+     * Stops watching a file once the last tab showing it is closed.
+     *
+     * @param file the file
+     */
+    public synchronized void unwatch(File file) {
+        Path path = key(file);
+        Known k = known.get(path);
+        if (k == null || --k.tabs > 0) {
+            return;
+        }
+        known.remove(path);
+        Path dir = path.getParent();
+        for (Path other : known.keySet()) {
+            if (other.getParent().equals(dir)) {
+                return;
+            }
+        }
+        WatchKey key = directories.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    /**
+     * Called before the editor writes a watched file.
+     *
+     * @param file the file about to be saved
+     */
+    public synchronized void beginSave(File file) {
+        Known k = known.get(key(file));
+        if (k != null) {
+            k.saving++;
+        }
+    }
+
+    /**
+     * Called after the editor wrote a watched file, whether or not the
+     * save succeeded. What is on disk now becomes the known state.
+     *
+     * @param file the file that was saved
+     */
+    public synchronized void endSave(File file) {
+        Path path = key(file);
+        Known k = known.get(path);
+        if (k != null) {
+            k.saving--;
+            remember(path, k);
+        }
+    }
+
+    /**
+     * Checks a file right before it is written, so a change that was not
+     * reported yet is not overwritten.
+     *
+     * @param file the file
+     * @return true if the file on disk is not what the editor last saw
+     */
+    public boolean changedOnDisk(File file) {
+        Path path = key(file);
+        Known k;
+        long size;
+        long modified;
+        long hash;
+        synchronized (this) {
+            k = known.get(path);
+            if (k == null) {
+                return false;
+            }
+            size = k.size;
+            modified = k.modified;
+            hash = k.hash;
+        }
+        try {
+            if (Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == modified) {
+                return false;
+            }
+            return hash == -1 || hash(path) != hash;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    //Records size and time now, the hash is computed on the watcher thread, and only kept if
+    //the file still has this size and time after it was read
+    private void remember(Path path, Known k) {
+        try {
+            k.size = Files.size(path);
+            k.modified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            k.size = -1;
+            k.modified = -1;
+        }
+        k.hash = -1;
+        toHash.add(path);
+    }
+
+    private static long hash(Path path) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                hashPending();
+                WatchKey key = service.poll(1, TimeUnit.SECONDS);
+                if (key == null) {
+                    continue;
+                }
+                Set<Path> touched = new HashSet<>();
+                do {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            synchronized (this) {
+                                for (Path path : known.keySet()) {
+                                    if (path.getParent().equals(dir)) {
+                                        touched.add(path);
+                                    }
+                                }
+                            }
+                        } else {
+                            touched.add(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                } while ((key = service.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null);
+
+                for (Path path : touched) {
+                    check(path);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            //Shutting down
+        }
+    }
+
+    private void hashPending() {
+        Path path;
+        while ((path = toHash.poll()) != null) {
+            long size;
+            long modified;
+            synchronized (this) {
+                Known k = known.get(path);
+                if (k == null || k.hash != -1 || k.saving > 0) {
+                    continue;
+                }
+                size = k.size;
+                modified = k.modified;
+            }
+            try {
+                if (Files.size(path) != size || Files.getLastModifiedTime(path).toMillis() != modified) {
+                    //Written by another program since it was remembered, that change is reported
+                    continue;
+                }
+                long hash = hash(path);
+                if (Files.size(path) != size || Files.getLastModifiedTime(path).toMillis() != modified) {
+                    //Written while it was read, the hash may mix both contents
+                    continue;
+                }
+                synchronized (this) {
+                    Known k = known.get(path);
+                    if (k != null && k.hash == -1 && k.saving == 0 && k.size == size && k.modified == modified) {
+                        k.hash = hash;
+                    }
+                }
+            } catch (IOException ex) {
+                //Deleted or unreadable, compared by size and time only
+            }
+        }
+    }
+
+    private void check(Path path) {
+        long size;
+        long modified;
+        try {
+            size = Files.size(path);
+            modified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            //Deleted, possibly about to be replaced. The tab keeps its text
+            return;
+        }
+        long hash;
+        synchronized (this) {
+            Known k = known.get(path);
+            if (k == null || k.saving > 0 || (k.size == size && k.modified == modified)) {
+                return;
+            }
+            hash = k.hash;
+        }
+        long current;
+        try {
+            current = hash(path);
+        } catch (IOException ex) {
+            return;
+        }
+        synchronized (this) {
+            Known k = known.get(path);
+            if (k == null || k.saving > 0) {
+                return;
+            }
+            k.size = size;
+            k.modified = modified;
+            k.hash = current;
+        }
+        if (current != hash) {
+            SwingUtilities.invokeLater(() -> onChange.accept(path));
+        }
+    }
+
+    /**
+     * Reads a file the way {@link FileLoader} does, as UTF-8 with '\n' line endings.
+     *
+     * @param path the file
+     * @return its text
+     * @throws IOException if it cannot be read
+     */
+    public static String readText(Path path) throws IOException {
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        return text.indexOf('\r') < 0 ? text : text.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    /**
+     * Turns the document into the given text by replacing only the range
+     * between their longest common prefix and suffix, instead of all of it.
+     *
+     * @param doc the document
+     * @param text the new text
+     * @throws BadLocationException never for consistent input
+     */
+    public static void patch(Document doc, String text) throws BadLocationException {
+        int docLength = doc.getLength();
+        int max = Math.min(docLength, text.length());
+        Segment segment = new Segment();
+
+        int prefix = 0;
+        segment.setPartialReturn(true);
+        outer:
+        while (prefix < max) {
+            doc.getText(prefix, max - prefix, segment);
+            for (int i = 0; i < segment.count; i++, prefix++) {
+                if (segment.array[segment.offset + i] != text.charAt(prefix)) {
+                    break outer;
+                }
+            }
+        }
+
+        int suffix = 0;
+        max -= prefix;
+        segment.setPartialReturn(false);
+        outer:
+        while (suffix < max) {
+            int n = Math.min(FileLoader.CHUNK, max - suffix);
+            doc.getText(docLength - suffix - n, n, segment);
+            for (int i = segment.count - 1; i >= 0; i--, suffix++) {
+                if (suffix == max || segment.array[segment.offset + i] != text.charAt(text.length() - 1 - suffix)) {
+                    break outer;
+                }
+            }
+        }
+
+        int removed = docLength - prefix - suffix;
+        String inserted = text.substring(prefix, text.length() - suffix);
+        if (removed == 0 && inserted.isEmpty()) {
+            return;
+        }
+        if (doc instanceof AbstractDocument) {
+            ((AbstractDocument) doc).replace(prefix, removed, inserted, null);
+        } else {
+            doc.remove(prefix, removed);
+            doc.insertString(prefix, inserted, null);
+        }
+    }
+}
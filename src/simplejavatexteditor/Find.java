@@ -32,28 +32,88 @@
 package simplejavatexteditor;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
 
 public class Find extends JFrame implements ActionListener {
 
     private static final long serialVersionUID = 1L;
-    int startIndex=0;
-        int select_start=-1;
-    JLabel lab1, lab2;
+    int select_start=-1;
+    JLabel lab1, lab2, status;
     JTextField textF, textR;
-    JButton findBtn, findNext, replace, replaceAll, cancel;
+    JCheckBox matchCase, regex;
+    JButton findBtn, findNext, findPrevious, replace, replaceAll, cancel;
     private JTextArea txt;
+    // The search of the last click, kept while the text and case stay the same
+    private TextSearch search;
+    private RegexSearch regexSearch;
+    // Searches in the background while the text is typed
+    private final IncrementalSearch incremental = new IncrementalSearch();
+    // Highlights and counts every match of the text in the field
+    private final MatchHighlighter matches;
+
+    // Runs the expression searches of the buttons, a new click replaces the one queued
+    private static final ThreadPoolExecutor WORKER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread t = new Thread(r, "Find and replace");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    // Moved on by every click, Cancel and edit, the search of an older one stops
+    private final AtomicLong generation = new AtomicLong();
+    // Whether a search of a button runs, Cancel then stops it instead of closing
+    private boolean searching;
+    // The document searched, an edit to it stops the search, whose offsets would be wrong
+    private Document watched;
+    private final DocumentListener editStops = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            stopSearch("Stopped, the text was edited");
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            stopSearch("Stopped, the text was edited");
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    // A search of a button, on the worker thread
+    private interface Search<T> {
+        T run(BooleanSupplier stop);
+    }
 
     public Find(JTextArea text) {
         this.txt = text;
 
         lab1 = new JLabel("Find:");
         lab2 = new JLabel("Replace:");
+        status = new JLabel(" ");
         textF = new JTextField(30);
         textR = new JTextField(30);
         findBtn = new JButton("Find");
         findNext = new JButton("Find Next");
+        findPrevious = new JButton("Find Previous");
+        matchCase = new JCheckBox("Match case");
+        regex = new JCheckBox("Regular expression");
         replace = new JButton("Replace");
         replaceAll = new JButton("Replace All");
         cancel = new JButton("Cancel");
@@ -74,6 +134,14 @@ public class Find extends JFrame implements ActionListener {
         add(lab2);
         textR.setBounds(10+labWidth, 10+labHeight+10, 120, 20);
         add(textR);
+        matchCase.setBounds(10, 70, 200, 20);
+        add(matchCase);
+        matchCase.addActionListener(this);
+        regex.setBounds(10, 92, 200, 20);
+        add(regex);
+        regex.addActionListener(this);
+        status.setBounds(10, 116, 210, 20);
+        add(status);
 
         // Adding buttons
         findBtn.setBounds(225, 6, 115, 20);
@@ -84,22 +152,46 @@ public class Find extends JFrame implements ActionListener {
         add(findNext);
         findNext.addActionListener(this);
 
-        replace.setBounds(225, 50, 115, 20);
+        findPrevious.setBounds(225, 50, 115, 20);
+        add(findPrevious);
+        findPrevious.addActionListener(this);
+
+        replace.setBounds(225, 72, 115, 20);
         add(replace);
         replace.addActionListener(this);
 
-        replaceAll.setBounds(225, 72, 115, 20);
+        replaceAll.setBounds(225, 94, 115, 20);
         add(replaceAll);
         replaceAll.addActionListener(this);
 
-        cancel.setBounds(225, 94, 115, 20);
+        cancel.setBounds(225, 116, 115, 20);
         add(cancel);
         cancel.addActionListener(this);
 
+        matches = new MatchHighlighter(txt, new HighlightText(new Color(255, 236, 140)), this::showStatus);
+        matches.install();
+
+        // Find as you type
+        textF.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                findAsYouType();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                findAsYouType();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
 
         // Set the width and height of the window
         int width = 360;
-        int height = 160;
+        int height = 180;
 
         // Set size window
         setSize(width,height);
@@ -110,72 +202,400 @@ public class Find extends JFrame implements ActionListener {
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
     }
 
-    public void find() {
-        select_start = txt.getText().indexOf(textF.getText().toLowerCase());
-        if(select_start == -1)
+    // The search for the text in the field, null if it is empty
+    private TextSearch search() {
+        String pattern = textF.getText();
+        if (pattern == null || pattern.isEmpty())
         {
-            startIndex = 0;
-            JOptionPane.showMessageDialog(null, "Could not find \"" + textF.getText() + "\"!");
-            return;
+            return null;
         }
-        if(select_start == txt.getText().lastIndexOf(textF.getText().toLowerCase()))
+        if (search == null || !search.pattern().equals(pattern) || search.matchCase() != matchCase.isSelected())
         {
-            startIndex = 0;
+            search = new TextSearch(pattern, matchCase.isSelected());
         }
-        int select_end = select_start + textF.getText().length();
-        txt.select(select_start, select_end);
+        return search;
     }
 
-    public void findNext() {
-        String selection = txt.getSelectedText();
-        try
+    // The same for an expression, throws PatternSyntaxException if it is not valid
+    private RegexSearch regexSearch() {
+        String pattern = textF.getText();
+        if (pattern == null || pattern.isEmpty())
+        {
+            return null;
+        }
+        if (regexSearch == null || !regexSearch.pattern().equals(pattern) || regexSearch.matchCase() != matchCase.isSelected())
+        {
+            regexSearch = new RegexSearch(pattern, matchCase.isSelected());
+        }
+        return regexSearch;
+    }
+
+    // The text of the document, for the expression to run over
+    private PieceTableContent.Snapshot text() {
+        Document doc = txt.getDocument();
+        PieceTableContent.Snapshot[] text = new PieceTableContent.Snapshot[1];
+        doc.render(() -> text[0] = PieceTableContent.snapshot(doc));
+        return text[0];
+    }
+
+    // Tells why an expression could not be searched for
+    private void failed(String why) {
+        showStatus();
+        JOptionPane.showMessageDialog(this, why);
+    }
+
+    // "k of N" while a match is selected, else how many there are
+    private void showStatus() {
+        if (searching)
+        {
+            status.setText("Searching...");
+        }
+        else if (textF.getText().isEmpty())
+        {
+            status.setText(" ");
+        }
+        else if (matches.getError() != null)
+        {
+            status.setText(matches.getError());
+        }
+        else if (matches.isCounting())
         {
-            selection.equals("");
+            status.setText("Counting...");
         }
-        catch(NullPointerException e)
+        else if (matches.getCount() == 0)
         {
-            selection = textF.getText();
+            status.setText("No match");
+        }
+        else
+        {
+            String total = matches.getCount() + (matches.isTruncated() ? "+" : "");
+            status.setText(matches.getCurrent() > 0 ? matches.getCurrent() + " of " + total : total + " matches");
+        }
+    }
+
+    // Runs a search over a snapshot of the text off the EDT, then gives its result to done on the EDT,
+    // unless another click, Cancel or an edit came first. If it fails the user is told why instead
+    private <T> void inBackground(Search<T> search, Consumer<T> done) {
+        long id = generation.incrementAndGet();
+        BooleanSupplier stop = () -> generation.get() != id;
+        unwatch();
+        watched = txt.getDocument();
+        watched.addDocumentListener(editStops);
+        searching = true;
+        showStatus();
+        WORKER.execute(() -> {
+            if (stop.getAsBoolean())
+            {
+                return;
+            }
+            T result = null;
+            String error = null;
             try
             {
-                selection.equals("");
+                result = search.run(stop);
             }
-            catch(NullPointerException e2)
+            catch (RegexSearch.Stopped | IllegalArgumentException | IndexOutOfBoundsException e)
             {
-                selection = JOptionPane.showInputDialog("Find:");
-                textF.setText(selection);
+                // A bad group in the replacement is one of the last two
+                error = e.getMessage();
             }
+            T found = result;
+            String why = error;
+            SwingUtilities.invokeLater(() -> {
+                if (stop.getAsBoolean())
+                {
+                    return;
+                }
+                unwatch();
+                searching = false;
+                if (why != null)
+                {
+                    failed(why);
+                }
+                else
+                {
+                    done.accept(found);
+                }
+            });
+        });
+    }
+
+    // Stops the search of a button, if one runs
+    private void stopSearch(String why) {
+        generation.incrementAndGet();
+        unwatch();
+        if (searching)
+        {
+            searching = false;
+            status.setText(why);
+        }
+    }
+
+    private void unwatch() {
+        if (watched != null)
+        {
+            watched.removeDocumentListener(editStops);
+            watched = null;
         }
+    }
+
+    // The first match starting at or after from, or backward the last one ending at or before it,
+    // wrapping around to the other end. Done gets {start, end}, or null if there is none
+    private void match(int from, boolean backward, Consumer<int[]> done) {
+        // A click replaces the search of the one before
+        stopSearch(" ");
+        if (!regex.isSelected())
+        {
+            TextSearch search = search();
+            if (search == null)
+            {
+                return;
+            }
+            Document doc = txt.getDocument();
+            int start = backward ? search.lastIndexOf(doc, from) : search.indexOf(doc, from);
+            if (start == -1 && (backward ? from < doc.getLength() : from > 0))
+            {
+                start = backward ? search.lastIndexOf(doc, doc.getLength()) : search.indexOf(doc, 0);
+            }
+            done.accept(start == -1 ? null : new int[]{start, start + search.length()});
+            return;
+        }
+        RegexSearch search;
         try
         {
-            int select_start = txt.getText() .indexOf(selection , startIndex);
-            int select_end = select_start+selection.length();
-            txt.select(select_start, select_end);
-            startIndex = select_end+1;
+            search = regexSearch();
+        }
+        catch (PatternSyntaxException e)
+        {
+            failed("Invalid expression: " + e.getDescription());
+            return;
+        }
+        if (search == null)
+        {
+            return;
+        }
+        PieceTableContent.Snapshot text = text();
+        inBackground(stop -> {
+            int[] match = backward ? search.findLast(text, from, stop) : search.find(text, from, stop);
+            if (match == null && (backward ? from < text.length() : from > 0))
+            {
+                match = backward ? search.findLast(text, text.length(), stop) : search.find(text, 0, stop);
+            }
+            return match;
+        }, done);
+    }
+
+    // Selects the match, or tells there is none
+    private void select(int[] match) {
+        if(match == null)
+        {
+            select_start = -1;
+            JOptionPane.showMessageDialog(null, "Could not find \"" + textF.getText() + "\"!");
+            return;
+        }
+        select_start = match[0];
+        txt.select(match[0], match[1]);
+        showStatus();
+    }
+
+    // Selects the first match from the start of the selection, searched in the background
+    private void findAsYouType() {
+        String query = textF.getText();
+        matches.setQuery(query, regex.isSelected(), matchCase.isSelected());
+        if (query.isEmpty())
+        {
+            incremental.cancel();
+            return;
+        }
+        incremental.request(txt.getDocument(), query, regex.isSelected(), matchCase.isSelected(), txt.getSelectionStart(), result -> {
+            if (result.found())
+            {
+                select_start = result.start;
+                txt.select(result.start, result.end);
+                showStatus();
+            }
+            else if (result.error != null)
+            {
+                status.setText(result.error);
+            }
+            else
+            {
+                showStatus();
+            }
+        });
+    }
 
-            if(select_start == txt.getText().lastIndexOf(selection.toLowerCase()))
+    public void find() {
+        match(0, false, this::select);
+    }
+
+    // From the end of the selection, which is the last match after a click, to the next one
+    public void findNext() {
+        if (textF.getText().isEmpty())
+        {
+            String selection = txt.getSelectedText();
+            if (selection == null)
             {
-                startIndex = 0;
+                selection = JOptionPane.showInputDialog("Find:");
+            }
+            if (selection == null)
+            {
+                return;
             }
+            textF.setText(selection);
         }
-        catch(NullPointerException e)
-        {}
+        match(txt.getSelectionEnd(), false, this::select);
+    }
+
+    public void findPrevious() {
+        match(txt.getSelectionStart(), true, this::select);
     }
 
+    // Replaces the selected match, then selects the next one
     public void replace() {
+        // A click replaces the search of the one before
+        stopSearch(" ");
+        int start = txt.getSelectionStart();
+        int end = txt.getSelectionEnd();
+        if (!regex.isSelected())
+        {
+            TextSearch search = search();
+            if (search == null)
+            {
+                return;
+            }
+            if (end - start == search.length() && search.matchesAt(txt.getDocument(), start))
+            {
+                txt.replaceSelection(textR.getText());
+            }
+            findNext();
+            return;
+        }
+        RegexSearch search;
         try
         {
-            find();
-            if (select_start != -1)
-            txt.replaceSelection(textR.getText());
+            search = regexSearch();
         }
-        catch(NullPointerException e)
+        catch (PatternSyntaxException e)
         {
-            System.out.print("Null Pointer Exception: "+e);
+            failed("Invalid expression: " + e.getDescription());
+            return;
         }
+        if (search == null)
+        {
+            return;
+        }
+        PieceTableContent.Snapshot text = text();
+        String with = textR.getText();
+        inBackground(stop -> search.replacement(text, start, end, with, stop), replacement -> {
+            // Unless the selection moved meanwhile
+            if (replacement != null && txt.getSelectionStart() == start && txt.getSelectionEnd() == end)
+            {
+                txt.replaceSelection(replacement);
+            }
+            findNext();
+        });
     }
 
+    // Replaces every match, literally unless it is an expression, then $1 and the like are its groups
     public void replaceAll() {
-        txt.setText(txt.getText().replaceAll(textF.getText() , textR.getText()));
+        // A click replaces the search of the one before
+        stopSearch(" ");
+        if (!regex.isSelected())
+        {
+            TextSearch search = search();
+            if (search == null)
+            {
+                return;
+            }
+            int[] starts = search.findAll(txt.getDocument());
+            int[] ends = new int[starts.length];
+            for (int k = 0; k < starts.length; k++)
+            {
+                ends[k] = starts[k] + search.length();
+            }
+            String[] replacements = new String[starts.length];
+            Arrays.fill(replacements, textR.getText());
+            replaceAll(starts, ends, replacements);
+            return;
+        }
+        RegexSearch search;
+        try
+        {
+            search = regexSearch();
+        }
+        catch (PatternSyntaxException e)
+        {
+            failed("Invalid expression: " + e.getDescription());
+            return;
+        }
+        if (search == null)
+        {
+            return;
+        }
+        PieceTableContent.Snapshot text = text();
+        String with = textR.getText();
+        // No time budget, however long the text, Cancel stops it
+        inBackground(stop -> search.findAll(text, with, stop),
+                found -> replaceAll(found.starts, found.ends, found.replacements));
+    }
+
+    // Replaces the ranges [starts[k], ends[k]) from the back, one edit per run of adjacent matches,
+    // so the caret, bookmarks and highlights outside the matches stay where they are
+    private void replaceAll(int[] starts, int[] ends, String[] replacements) {
+        if (starts.length == 0)
+        {
+            select(null);
+            return;
+        }
+        Document doc = txt.getDocument();
+        Rectangle view = txt.getVisibleRect();
+
+        Runnable edits = () -> {
+            int last = starts.length - 1;
+            while (last >= 0)
+            {
+                int first = last;
+                while (first > 0 && starts[first] == ends[first - 1])
+                {
+                    first--;
+                }
+                String text = replacements[first];
+                if (first < last)
+                {
+                    StringBuilder run = new StringBuilder();
+                    for (int k = first; k <= last; k++)
+                    {
+                        run.append(replacements[k]);
+                    }
+                    text = run.toString();
+                }
+                try
+                {
+                    ((AbstractDocument) doc).replace(starts[first], ends[last] - starts[first], text, null);
+                }
+                catch (BadLocationException e)
+                {
+                    e.printStackTrace();
+                    return;
+                }
+                last = first - 1;
+            }
+        };
+        if (doc instanceof PieceTableDocument)
+        {
+            ((PieceTableDocument) doc).batch(edits);
+        }
+        else if (doc instanceof LargeFileDocument)
+        {
+            ((LargeFileDocument) doc).batch(edits);
+        }
+        else
+        {
+            edits.run();
+        }
+
+        txt.scrollRectToVisible(view);
     }
 
     public void actionPerformed(ActionEvent e) {
@@ -187,6 +607,10 @@ public class Find extends JFrame implements ActionListener {
         {
            findNext();
         }
+        else if(e.getSource() == findPrevious)
+        {
+           findPrevious();
+        }
         else if(e.getSource() == replace)
         {
             replace();
@@ -195,10 +619,29 @@ public class Find extends JFrame implements ActionListener {
         {
            replaceAll();
         }
+        else if(e.getSource() == matchCase || e.getSource() == regex)
+        {
+           findAsYouType();
+        }
         else if(e.getSource() == cancel)
         {
+           if (searching)
+           {
+               stopSearch("Cancelled");
+               return;
+           }
+           incremental.cancel();
+           matches.uninstall();
            this.setVisible(false);
         }
    }
 
+    @Override
+    public void dispose() {
+        stopSearch(" ");
+        incremental.cancel();
+        matches.uninstall();
+        super.dispose();
+    }
+
 }
\ No newline at end of file
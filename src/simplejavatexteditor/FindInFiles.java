@@ -0,0 +1,168 @@
+package simplejavatexteditor;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+
+/**
+ * <h1>Find in Files: searches a directory tree and lists the hits</h1>
+ *
+ * <p>
+ * The search runs in the background, see FileSearch.java, and the hits
+ * show up in the list while it goes on. Stop cancels it. Double clicking a
+ * hit opens its file at the match.
+ * </p>
+ */
+public class FindInFiles extends JFrame implements ActionListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final UI ui;
+    private final JTextField textF = new JTextField(25);
+    private final JTextField directory = new JTextField(25);
+    private final JButton browse = new JButton("...");
+    private final JCheckBox matchCase = new JCheckBox("Match case");
+    private final JButton findBtn = new JButton("Find");
+    private final JButton stop = new JButton("Stop");
+    private final DefaultListModel<FileSearch.Hit> hits = new DefaultListModel<>();
+    private final JList<FileSearch.Hit> list = new JList<>(hits);
+    private final JLabel status = new JLabel(" ");
+    private FileSearch search;
+    // Counts the searches, the hits of a replaced one are dropped
+    private int runs;
+
+    /**
+     * @param ui the editor, which opens the hits
+     * @param dir the directory to search at first
+     */
+    public FindInFiles(UI ui, File dir) {
+        super("Find in Files");
+        this.ui = ui;
+        directory.setText(dir.getAbsolutePath());
+
+        JPanel fields = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fields.add(new JLabel("Find:"));
+        fields.add(textF);
+        fields.add(matchCase);
+        JPanel where = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        where.add(new JLabel("In:"));
+        where.add(directory);
+        where.add(browse);
+        where.add(findBtn);
+        where.add(stop);
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(fields, BorderLayout.NORTH);
+        top.add(where, BorderLayout.SOUTH);
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                FileSearch.Hit hit = list.getSelectedValue();
+                if (e.getClickCount() == 2 && hit != null) {
+                    ui.openAt(hit.file, hit.offset);
+                }
+            }
+        });
+
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+        add(status, BorderLayout.SOUTH);
+
+        textF.addActionListener(this);
+        findBtn.addActionListener(this);
+        stop.addActionListener(this);
+        browse.addActionListener(this);
+        stop.setEnabled(false);
+
+        setSize(620, 420);
+        setLocationRelativeTo(ui);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        setVisible(true);
+    }
+
+    public void find() {
+        String pattern = textF.getText();
+        File dir = new File(directory.getText());
+        if (pattern.isEmpty()) {
+            return;
+        }
+        if (!dir.isDirectory()) {
+            JOptionPane.showMessageDialog(this, "\"" + dir + "\" is not a directory!");
+            return;
+        }
+        stopSearch();
+        hits.clear();
+        int run = ++runs;
+        search = new FileSearch(dir, new TextSearch(pattern, matchCase.isSelected()), batch -> {
+            if (run == runs) {
+                for (FileSearch.Hit hit : batch) {
+                    hits.addElement(hit);
+                }
+                showStatus(false);
+            }
+        });
+        stop.setEnabled(true);
+        status.setText(" Searching...");
+        search.start(() -> {
+            if (run == runs) {
+                showStatus(true);
+                stop.setEnabled(false);
+            }
+        });
+    }
+
+    private void showStatus(boolean done) {
+        String text = " " + hits.getSize() + " hits in " + search.getSearched() + " files";
+        if (search.getSkipped() > 0) {
+            text += ", " + search.getSkipped() + " skipped";
+        }
+        if (done && search.isCancelled()) {
+            text += ", stopped";
+        }
+        status.setText(done ? text : text + "...");
+    }
+
+    private void stopSearch() {
+        if (search != null) {
+            search.cancel();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        stopSearch();
+        super.dispose();
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource() == findBtn || e.getSource() == textF) {
+            find();
+        } else if (e.getSource() == stop) {
+            stopSearch();
+        } else if (e.getSource() == browse) {
+            JFileChooser chooser = new JFileChooser(directory.getText());
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                directory.setText(chooser.getSelectedFile().getAbsolutePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package simplejavatexteditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * <h1>Finds fuzzy completions in the background, within a time budget</h1>
+ *
+ * <p>
+ * The keywords of the language, the words of the open tabs and the symbols
+ * of the project are scored by {@link FuzzyMatcher} on one background
+ * thread. Only words starting with the first typed char, in either case,
+ * are looked at, the sorted sources give those without a full scan.
+ * </p>
+ *
+ * <p>
+ * Each key starts a request and the EDT never waits for one. A newer
+ * request replaces one still queued and stops one running at its next
+ * check, so at most one result reaches the EDT, the latest. A request also
+ * stops when its budget, counted from the key, is spent, and then delivers
+ * the best suggestions found so far, marked as partial.
+ * </p>
+ */
+public class FuzzyCompleter {
+
+    //The most suggestions kept
+    static final int MAX_RESULTS = 50;
+    //From the key to the results, queueing included
+    static final long BUDGET_NANOS = 30_000_000L;
+    //Words scored between checks of the clock and for a newer request
+    private static final int CHECK_EVERY = 128;
+
+    //One thread, a new request replaces the queued one
+    private static final ThreadPoolExecutor WORKER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread t = new Thread(r, "Completion");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    /**
+     * Receives the words of a source, in alphabetical order
+     */
+    public interface Visitor {
+
+        /**
+         * @param word a word
+         * @param weight how often it occurs or was used
+         * @return false to stop
+         */
+        boolean visit(String word, int weight);
+    }
+
+    /**
+     * A word to offer and where it came from
+     */
+    public static final class Suggestion {
+
+        public static final int KEYWORD = 0;
+        public static final int WORD = 1;
+        public static final int SYMBOL = 2;
+
+        public final String word;
+        public final int source;
+        //The keyword id, or -1
+        final int id;
+        final int score;
+        final int weight;
+
+        Suggestion(String word, int source, int id, int score, int weight) {
+            this.word = word;
+            this.source = source;
+            this.id = id;
+            this.score = score;
+            this.weight = weight;
+        }
+
+        //Better first: score, weight, source, then the word
+        boolean before(Suggestion other) {
+            if (score != other.score) {
+                return score > other.score;
+            }
+            if (weight != other.weight) {
+                return weight > other.weight;
+            }
+            if (source != other.source) {
+                return source < other.source;
+            }
+            return word.compareTo(other.word) < 0;
+        }
+
+        @Override
+        public String toString() {
+            return word;
+        }
+    }
+
+    /**
+     * The suggestions for one pattern
+     */
+    public static final class Result {
+
+        public final String pattern;
+        public final List<Suggestion> suggestions;
+        //False if the budget ran out before every word was scored
+        public final boolean complete;
+
+        Result(String pattern, List<Suggestion> suggestions, boolean complete) {
+            this.pattern = pattern;
+            this.suggestions = suggestions;
+            this.complete = complete;
+        }
+    }
+
+    private final CompletionIndex keywords;
+    private final BufferWords bufferWords;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param keywords the keywords of the language, or null
+     * @param bufferWords the words of the open tabs
+     */
+    public FuzzyCompleter(CompletionIndex keywords, BufferWords bufferWords) {
+        this.keywords = keywords;
+        this.bufferWords = bufferWords;
+    }
+
+    /**
+     * Starts finding the completions of a pattern, in place of any earlier
+     * request. Returns at once.
+     *
+     * @param pattern the typed chars
+     * @param project the project symbols, or null
+     * @param done gets the result on the EDT, unless a newer request or a
+     * cancel came first
+     */
+    public void request(String pattern, ProjectIndex project, Consumer<Result> done) {
+        long id = generation.incrementAndGet();
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        WORKER.execute(() -> {
+            if (generation.get() != id) {
+                return;
+            }
+            Result result = new Search(pattern, id, deadline).run(project);
+            if (result != null) {
+                SwingUtilities.invokeLater(() -> {
+                    if (generation.get() == id) {
+                        done.accept(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops the pending request, its result is never delivered.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * One request, on the worker thread
+     */
+    private class Search implements Visitor {
+
+        private final String pattern;
+        private final long id;
+        private final long deadline;
+        private final Suggestion[] best = new Suggestion[MAX_RESULTS];
+        private int count;
+        private int seen;
+        private boolean stopped;
+        private int source;
+        private int keywordId = -1;
+
+        Search(String pattern, long id, long deadline) {
+            this.pattern = pattern;
+            this.id = id;
+            this.deadline = deadline;
+        }
+
+        //The result, or null if a newer request came
+        Result run(ProjectIndex project) {
+            char first = pattern.charAt(0);
+            char lower = Character.toLowerCase(first);
+            char upper = Character.toUpperCase(first);
+            for (char c : lower == upper ? new char[]{first} : new char[]{lower, upper}) {
+                String start = String.valueOf(c);
+                //Keywords first, a word of the tabs that is also a keyword is then skipped
+                source = Suggestion.KEYWORD;
+                if (keywords != null) {
+                    for (int k = keywords.first(start), end = keywords.end(start); k < end && !stopped; k++) {
+                        keywordId = k;
+                        visit(keywords.word(k), keywords.uses(k));
+                    }
+                    keywordId = -1;
+                }
+                source = Suggestion.WORD;
+                if (!stopped) {
+                    bufferWords.forEach(start, this);
+                }
+                source = Suggestion.SYMBOL;
+                if (!stopped && project != null) {
+                    project.forEach(start, this);
+                }
+            }
+            if (generation.get() != id) {
+                return null;
+            }
+            return new Result(pattern, new ArrayList<>(Arrays.asList(best).subList(0, count)), !stopped);
+        }
+
+        @Override
+        public boolean visit(String word, int weight) {
+            if (++seen % CHECK_EVERY == 0 && (generation.get() != id || System.nanoTime() - deadline > 0)) {
+                stopped = true;
+                return false;
+            }
+            int score = FuzzyMatcher.score(pattern, word);
+            if (score == FuzzyMatcher.NONE || word.length() == pattern.length() && word.contentEquals(pattern)) {
+                return true;
+            }
+            Suggestion s = new Suggestion(word, source, keywordId, score, weight);
+            if (count == best.length && !s.before(best[count - 1])) {
+                return true;
+            }
+            //A keyword is also a word of the tabs, the first source wins
+            for (int i = 0; i < count; i++) {
+                if (best[i].word.equals(word)) {
+                    return true;
+                }
+            }
+            int i = count < best.length ? count++ : best.length - 1;
+            while (i > 0 && s.before(best[i - 1])) {
+                best[i] = best[i - 1];
+                i--;
+            }
+            best[i] = s;
+            return true;
+        }
+    }
+}
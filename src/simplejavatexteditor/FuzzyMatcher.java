@@ -0,0 +1,126 @@
+package simplejavatexteditor;
+
+/**
+ * <h1>Scores how well a typed pattern abbreviates a word</h1>
+ *
+ * <p>
+ * The pattern has to be a subsequence of the word, ignoring case, starting
+ * at its first char. Chars that start a hump of the word, an upper case
+ * letter after a lower case one or a letter after '_' or a digit, score
+ * most, so "gCT" and "gct" both find getCurrentTextArea, then chars that
+ * follow the previous match. A plain prefix scores above any abbreviation,
+ * shorter words above longer ones.
+ * </p>
+ *
+ * <p>
+ * Nothing is allocated, so the matcher can run over many words per key.
+ * </p>
+ */
+public final class FuzzyMatcher {
+
+    //No match
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private static final int MATCH = 10;
+    private static final int HUMP = 30;
+    private static final int CONSECUTIVE = 15;
+    private static final int SAME_CASE = 1;
+    private static final int PREFIX = 1000;
+
+    private FuzzyMatcher() {
+    }
+
+    /**
+     * @param pattern the typed chars
+     * @param word a candidate
+     * @return the score, higher is better, or {@link #NONE}
+     */
+    public static int score(CharSequence pattern, String word) {
+        int n = pattern.length();
+        if (n == 0 || n > word.length() || !same(pattern.charAt(0), word.charAt(0))) {
+            return NONE;
+        }
+        if (startsWith(word, pattern)) {
+            return PREFIX + n * (MATCH + CONSECUTIVE) - word.length();
+        }
+        int score = match(pattern, word, true);
+        if (score == NONE) {
+            //Jumping to humps can skip chars a later one needed
+            score = match(pattern, word, false);
+        }
+        return score == NONE ? NONE : score - word.length();
+    }
+
+    //Matches left to right, each char where it follows the last one, else at the next hump if humps is set, else anywhere
+    private static int match(CharSequence pattern, String word, boolean humps) {
+        int score = 0;
+        int last = -1;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            int at = -1;
+            if (last + 1 < word.length() && same(c, word.charAt(last + 1))) {
+                at = last + 1;
+            } else if (humps) {
+                for (int j = last + 1; j < word.length(); j++) {
+                    if (isHump(word, j) && same(c, word.charAt(j))) {
+                        at = j;
+                        break;
+                    }
+                }
+            }
+            if (at == -1) {
+                for (int j = last + 1; j < word.length(); j++) {
+                    if (same(c, word.charAt(j))) {
+                        at = j;
+                        break;
+                    }
+                }
+                if (at == -1) {
+                    return NONE;
+                }
+            }
+            score += MATCH;
+            if (at == last + 1) {
+                score += CONSECUTIVE;
+            }
+            if (isHump(word, at)) {
+                score += HUMP;
+            }
+            if (c == word.charAt(at)) {
+                score += SAME_CASE;
+            }
+            last = at;
+        }
+        return score;
+    }
+
+    /**
+     * @param word a word
+     * @param i an index in it
+     * @return whether a part of the word starts at i, e.g. the T of getText
+     */
+    static boolean isHump(String word, int i) {
+        if (i == 0) {
+            return true;
+        }
+        char c = word.charAt(i);
+        char before = word.charAt(i - 1);
+        if (Character.isUpperCase(c)) {
+            return !Character.isUpperCase(before);
+        }
+        return Character.isLetter(c) && !Character.isLetter(before);
+    }
+
+    private static boolean same(char a, char b) {
+        return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+
+    private static boolean startsWith(String word, CharSequence prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (word.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
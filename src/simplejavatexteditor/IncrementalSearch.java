@@ -0,0 +1,132 @@
+package simplejavatexteditor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+/**
+ * <h1>Finds the text of the Find field while it is typed</h1>
+ *
+ * <p>
+ * Each change of the field starts a request, on one background thread, so
+ * the EDT never waits for a search. The request reads a
+ * {@link PieceTableContent.Snapshot} taken when it starts, so the text may
+ * change meanwhile. A newer request replaces one still queued and stops
+ * one running at its next check, and only the latest result reaches the
+ * EDT.
+ * </p>
+ *
+ * <p>
+ * A literal text is found with {@link TextSearch}, checking for a newer
+ * request between chunks. An expression is found with {@link RegexSearch},
+ * which also stops when its budget is spent, so a pattern that backtracks
+ * without end only costs the background thread a moment.
+ * </p>
+ */
+public class IncrementalSearch {
+
+    //One thread, a new request replaces the queued one
+    private static final ThreadPoolExecutor WORKER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread t = new Thread(r, "Find");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    /**
+     * The match of one request
+     */
+    public static final class Result {
+
+        public final String query;
+        //The match, or -1 and -1
+        public final int start;
+        public final int end;
+        //Why there is no match, when it is not simply absent, else null
+        public final String error;
+
+        Result(String query, int start, int end, String error) {
+            this.query = query;
+            this.start = start;
+            this.end = end;
+            this.error = error;
+        }
+
+        /**
+         * @return whether something was found
+         */
+        public boolean found() {
+            return start >= 0;
+        }
+    }
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Starts finding a query from an offset, wrapping around to the top, in
+     * place of any earlier request. Returns at once. Call it on the EDT.
+     *
+     * @param doc the document
+     * @param query the text or expression, not empty
+     * @param regex whether the query is a regular expression
+     * @param matchCase false to ignore case
+     * @param from where to start
+     * @param done gets the result on the EDT, unless a newer request or a
+     * cancel came first
+     */
+    public void request(Document doc, String query, boolean regex, boolean matchCase, int from, Consumer<Result> done) {
+        long id = generation.incrementAndGet();
+        PieceTableContent.Snapshot[] text = new PieceTableContent.Snapshot[1];
+        doc.render(() -> text[0] = PieceTableContent.snapshot(doc));
+        BooleanSupplier replaced = () -> generation.get() != id;
+        WORKER.execute(() -> {
+            if (replaced.getAsBoolean()) {
+                return;
+            }
+            Result result = find(text[0], query, regex, matchCase, from, replaced);
+            SwingUtilities.invokeLater(() -> {
+                if (!replaced.getAsBoolean()) {
+                    done.accept(result);
+                }
+            });
+        });
+    }
+
+    /**
+     * Drops the pending request, its result is never delivered.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    //On the worker thread
+    private static Result find(PieceTableContent.Snapshot text, String query, boolean regex, boolean matchCase,
+            int from, BooleanSupplier replaced) {
+        if (!regex) {
+            TextSearch search = new TextSearch(query, matchCase);
+            int start = search.indexOf(text, from, text.length(), replaced);
+            if (start == -1 && from > 0) {
+                start = search.indexOf(text, 0, text.length(), replaced);
+            }
+            return start == -1 ? new Result(query, -1, -1, null) : new Result(query, start, start + search.length(), null);
+        }
+        try {
+            RegexSearch search = new RegexSearch(query, matchCase);
+            int[] match = search.find(text, from, replaced);
+            if (match == null && from > 0) {
+                match = search.find(text, 0, replaced);
+            }
+            return match == null ? new Result(query, -1, -1, null) : new Result(query, match[0], match[1], null);
+        } catch (PatternSyntaxException ex) {
+            return new Result(query, -1, -1, "Invalid expression: " + ex.getDescription());
+        } catch (RegexSearch.Stopped ex) {
+            return new Result(query, -1, -1, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package simplejavatexteditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Lexer that marks keywords and nothing else</h1>
+ *
+ * <p>
+ * A keyword only matches as a whole word: "int" is found in "int x" but
+ * not in "println". It has no state across lines.
+ * </p>
+ */
+public class KeywordLexer implements Lexer {
+
+    private final KeywordMatcher matcher;
+
+    /**
+     * @param keywords the words to mark, see {@link SupportedKeywords}
+     */
+    public KeywordLexer(String[]... keywords) {
+        List<String> all = new ArrayList<>();
+        for (String[] list : keywords) {
+            all.addAll(Arrays.asList(list));
+        }
+        matcher = KeywordMatcher.compile(all.toArray(new String[0]));
+    }
+
+    @Override
+    public int lex(Segment line, int state, Tokens tokens) {
+        matcher.find(line, this, tokens, KEYWORD);
+        return INITIAL;
+    }
+}
@@ -0,0 +1,165 @@
+package simplejavatexteditor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Finds every keyword of a language in one pass</h1>
+ *
+ * <p>
+ * An Aho-Corasick automaton over all keywords at once, with the failure
+ * links folded into a full transition table for ASCII, so the text is read
+ * exactly once, one table lookup per char, however many keywords there are.
+ * Matches are reported only as whole words, as the calling {@link Lexer}
+ * tells words apart, and go straight into a {@link Lexer.Tokens}, nothing
+ * is allocated per match.
+ * </p>
+ *
+ * <p>
+ * Automatons are immutable, built once per keyword list by
+ * {@link #compile} and shared by every tab and thread.
+ * </p>
+ */
+public final class KeywordMatcher {
+
+    private static final int ALPHABET = 128;
+    private static final Map<List<String>, KeywordMatcher> COMPILED = new ConcurrentHashMap<>();
+
+    //next[state * ALPHABET + c] is the state after reading c
+    private final int[] next;
+    //Lengths of the keywords ending in each state, longest first, or null
+    private final int[][] lengths;
+
+    /**
+     * Returns the automaton for a keyword list, building it the first time.
+     * Keywords with chars outside ASCII are ignored.
+     *
+     * @param keywords the keywords, see {@link SupportedKeywords}
+     * @return the shared automaton
+     */
+    public static KeywordMatcher compile(String... keywords) {
+        return COMPILED.computeIfAbsent(List.of(keywords), k -> new KeywordMatcher(keywords));
+    }
+
+    private KeywordMatcher(String[] keywords) {
+        int maxStates = 1;
+        for (String word : keywords) {
+            maxStates += word.length();
+        }
+        int[] trie = new int[maxStates * ALPHABET];
+        Arrays.fill(trie, -1);
+        int[][] own = new int[maxStates][];
+        int states = 1;
+
+        for (String word : keywords) {
+            if (word.isEmpty() || !word.chars().allMatch(c -> c < ALPHABET)) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < word.length(); i++) {
+                int slot = state * ALPHABET + word.charAt(i);
+                if (trie[slot] == -1) {
+                    trie[slot] = states++;
+                }
+                state = trie[slot];
+            }
+            own[state] = add(own[state], word.length());
+        }
+
+        //Breadth first, so the failure state of a state is always done before it
+        int[] fail = new int[states];
+        int[][] out = new int[states][];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            for (int c = 0; c < ALPHABET; c++) {
+                int slot = u * ALPHABET + c;
+                int v = trie[slot];
+                int viaFail = u == 0 ? 0 : trie[fail[u] * ALPHABET + c];
+                if (v == -1) {
+                    trie[slot] = viaFail;
+                } else {
+                    fail[v] = viaFail;
+                    out[v] = merge(own[v], out[viaFail]);
+                    queue.add(v);
+                }
+            }
+        }
+        next = Arrays.copyOf(trie, states * ALPHABET);
+        lengths = out;
+    }
+
+    private static int[] add(int[] list, int length) {
+        return merge(list, new int[] {length});
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (a == null || b == null) {
+            return a == null ? b : a;
+        }
+        int[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        Arrays.sort(all);
+        //Longest first
+        for (int i = 0, j = all.length - 1; i < j; i++, j--) {
+            int t = all[i];
+            all[i] = all[j];
+            all[j] = t;
+        }
+        return all;
+    }
+
+    /**
+     * Finds the keywords in the text. A keyword is only found where it is
+     * not part of a longer word, and found keywords never overlap.
+     *
+     * @param text the text, the chars around it are not looked at
+     * @param words tells which chars make up a word
+     * @param out receives each keyword, offset from the start of the text
+     * @param type the token type to report
+     */
+    public void find(Segment text, Lexer words, Lexer.Tokens out, int type) {
+        find(text.array, text.offset, text.offset + text.count, text.offset, words, out, type);
+    }
+
+    /**
+     * Finds the keywords in a part of a char array, as {@link #find(Segment, Lexer, Lexer.Tokens, int)}.
+     *
+     * @param a the chars
+     * @param from the start of the part
+     * @param end the end of the part, exclusive
+     * @param base the index the reported offsets are relative to
+     * @param words tells which chars make up a word
+     * @param out receives each keyword
+     * @param type the token type to report
+     */
+    public void find(char[] a, int from, int end, int base, Lexer words, Lexer.Tokens out, int type) {
+        int state = 0;
+        int lastEnd = from;
+        for (int i = from; i < end; i++) {
+            char c = a[i];
+            state = c < ALPHABET ? next[state * ALPHABET + c] : 0;
+            int[] found = lengths[state];
+            if (found == null) {
+                continue;
+            }
+            int e = i + 1;
+            if (e < end && words.isWordChar(c) && words.isWordChar(a[e])) {
+                continue;
+            }
+            for (int length : found) {
+                int s = e - length;
+                if (s >= lastEnd && (s == from || !words.isWordChar(a[s - 1]) || !words.isWordChar(a[s]))) {
+                    out.add(s - base, length, type);
+                    lastEnd = e;
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package simplejavatexteditor;
+
+import java.util.Arrays;
+
+/**
+ * <h1>The languages the editor knows, selected by file extension</h1>
+ *
+ * <p>
+ * Each language has its keywords from {@link SupportedKeywords}, one
+ * {@link Lexer} for highlighting, completion and search, and one
+ * {@link CompletionIndex}, all shared by every tab and thread. To support
+ * another language, add its keywords to {@link SupportedKeywords} and a
+ * constant here.
+ * </p>
+ */
+public enum Language {
+
+    JAVA(new SupportedKeywords().getJavaKeywords(), ".java") {
+        @Override
+        Lexer newLexer(String[] keywords) {
+            return new CodeLexer(keywords, "//", "/*", "*/", true, false);
+        }
+    },
+    CPP(new SupportedKeywords().getCppKeywords(), ".cpp", ".cc", ".cxx", ".c", ".hpp", ".h") {
+        @Override
+        Lexer newLexer(String[] keywords) {
+            return new CodeLexer(keywords, "//", "/*", "*/", false, false);
+        }
+    },
+    PYTHON(new SupportedKeywords().getPythonKeywords(), ".py") {
+        @Override
+        Lexer newLexer(String[] keywords) {
+            return new CodeLexer(keywords, "#", null, null, true, true) {
+                @Override
+                public boolean isWordChar(char c) {
+                    return Character.isLetterOrDigit(c) || c == '_';
+                }
+            };
+        }
+    };
+
+    private final String[] keywords;
+    private final String[] extensions;
+    private final Lexer lexer;
+    private final CompletionIndex completions;
+
+    Language(String[] keywords, String... extensions) {
+        this.keywords = keywords;
+        this.extensions = extensions;
+        this.lexer = newLexer(keywords);
+        this.completions = new CompletionIndex(Arrays.asList(keywords));
+    }
+
+    abstract Lexer newLexer(String[] keywords);
+
+    /**
+     * @return the keywords
+     */
+    public String[] getKeywords() {
+        return keywords.clone();
+    }
+
+    /**
+     * @return the lexer shared by every tab of this language
+     */
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    /**
+     * @return the completions shared by every tab of this language, they
+     * learn which words are used most
+     */
+    public CompletionIndex getCompletions() {
+        return completions;
+    }
+
+    /**
+     * @param fileName the name of a file
+     * @return its language, or null if it is not one of these
+     */
+    public static Language forFile(String fileName) {
+        for (Language language : values()) {
+            for (String extension : language.extensions) {
+                if (fileName.endsWith(extension)) {
+                    return language;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,472 @@
+package simplejavatexteditor;
+
+import java.util.Arrays;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+
+/**
+ * <h1>Document used by tabs opened in large file mode</h1>
+ *
+ * <p>
+ * A PlainDocument keeps one element object (and two positions) per line,
+ * which for a big log costs more than the text itself. This document keeps
+ * the start of every line in a single int array and creates the line
+ * elements only when a view asks for them. Tabs using it must not wrap
+ * lines, the wrapping view keeps one child view per line.
+ * </p>
+ *
+ * <p>
+ * The text is a {@link PieceTableContent} over the {@link PagedFileContent},
+ * so the file can be edited while the unchanged parts are still read from
+ * the file. The line array has a gap at the last edited line, like the
+ * marks of the content, so an edit only shifts the lines between it and the
+ * previous one.
+ * </p>
+ */
+public class LargeFileDocument extends AbstractDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LineIndex lines;
+    private final Element root = new LineRoot();
+    //Collects the undo of the edits of a batch
+    private transient CompoundEdit batching;
+
+    public LargeFileDocument(PagedFileContent file) {
+        super(new PieceTableContent(file));
+        lines = new LineIndex(file);
+    }
+
+    /**
+     * @return the current text, readable on any thread
+     */
+    public PieceTableContent.Snapshot snapshot() {
+        return ((PieceTableContent) getContent()).snapshot();
+    }
+
+    /**
+     * Runs several edits as one: other threads never see the text between
+     * them and undo listeners get them as one compound edit. Call on the
+     * EDT.
+     *
+     * @param edits the edits
+     */
+    public void batch(Runnable edits) {
+        writeLock();
+        try {
+            CompoundEdit compound = new CompoundEdit();
+            batching = compound;
+            try {
+                edits.run();
+            } finally {
+                batching = null;
+                compound.end();
+            }
+            if (compound.isSignificant()) {
+                super.fireUndoableEditUpdate(new UndoableEditEvent(this, compound));
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * @return whether a {@link #batch} is running
+     */
+    public boolean isBatching() {
+        return batching != null;
+    }
+
+    @Override
+    protected void fireUndoableEditUpdate(UndoableEditEvent e) {
+        if (batching != null) {
+            batching.addEdit(e.getEdit());
+        } else {
+            super.fireUndoableEditUpdate(e);
+        }
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int where = chng.getOffset();
+        int length = chng.getLength();
+        int[] added = new int[8];
+        int count = 0;
+        try {
+            Segment segment = new Segment();
+            segment.setPartialReturn(true);
+            int offset = where;
+            while (offset < where + length) {
+                getText(offset, where + length - offset, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        if (count == added.length) {
+                            added = Arrays.copyOf(added, count * 2);
+                        }
+                        added[count++] = offset + i + 1;
+                    }
+                }
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        int line = lines.insert(where, length, added, count);
+        chng.addEdit(new LineEdit(where, length, Arrays.copyOf(added, count), true));
+        if (count > 0) {
+            chng.addEdit(new LineChange(line, 1, count + 1));
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int where = chng.getOffset();
+        int length = chng.getLength();
+        int line = lines.lineOf(where);
+        int[] removed = lines.remove(where, length);
+        chng.addEdit(new LineEdit(where, length, removed, false));
+        if (removed.length > 0) {
+            chng.addEdit(new LineChange(line, removed.length + 1, 1));
+        }
+        super.removeUpdate(chng);
+    }
+
+    /**
+     * Undoes the change of the line index made with an edit of the text
+     */
+    private class LineEdit extends AbstractUndoableEdit {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private final int[] starts;
+        private final boolean insert;
+
+        LineEdit(int where, int length, int[] starts, boolean insert) {
+            this.where = where;
+            this.length = length;
+            this.starts = starts;
+            this.insert = insert;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            apply(!insert);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            apply(insert);
+        }
+
+        private void apply(boolean asInsert) {
+            if (asInsert) {
+                lines.insert(where, length, starts, starts.length);
+            } else {
+                lines.remove(where, length);
+            }
+        }
+    }
+
+    /**
+     * Tells the views which lines an edit replaced
+     */
+    private class LineChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private Element[] removed;
+        private Element[] added;
+
+        LineChange(int index, int removedCount, int addedCount) {
+            this.index = index;
+            removed = lines(removedCount);
+            added = lines(addedCount);
+        }
+
+        private Element[] lines(int count) {
+            Element[] result = new Element[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = new Line(index + i);
+            }
+            return result;
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return removed;
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return added;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            swap();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            swap();
+        }
+
+        private void swap() {
+            Element[] tmp = removed;
+            removed = added;
+            added = tmp;
+        }
+    }
+
+    /**
+     * The start offset of every line, with a gap at the last edited line.
+     * Starts after the gap are stored relative to the end of the text, so
+     * they move with edits made before them without being touched.
+     */
+    private static class LineIndex {
+
+        private int[] starts;
+        private int gapStart;
+        private int gapEnd;
+        private int length;
+
+        LineIndex(PagedFileContent file) {
+            int count = file.getLineCount();
+            starts = new int[count + 1024];
+            for (int i = 0; i < count; i++) {
+                starts[i] = file.getLineStart(i);
+            }
+            gapStart = count;
+            gapEnd = starts.length;
+            length = file.length();
+        }
+
+        int count() {
+            return starts.length - (gapEnd - gapStart);
+        }
+
+        int get(int line) {
+            return line < gapStart ? starts[line] : starts[line + gapEnd - gapStart] + length;
+        }
+
+        int lineOf(int offset) {
+            int lo = 0;
+            int hi = count() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (get(mid) <= offset) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        private void moveGap(int index) {
+            while (gapStart > index) {
+                gapStart--;
+                gapEnd--;
+                starts[gapEnd] = starts[gapStart] - length;
+            }
+            while (gapStart < index) {
+                starts[gapStart] = starts[gapEnd] + length;
+                gapStart++;
+                gapEnd++;
+            }
+        }
+
+        /**
+         * @return the line the text was inserted into
+         */
+        int insert(int where, int n, int[] added, int count) {
+            int line = lineOf(where);
+            moveGap(line + 1);
+            if (gapEnd - gapStart < count) {
+                int grow = Math.max(count, starts.length / 2);
+                int[] larger = new int[starts.length + grow];
+                System.arraycopy(starts, 0, larger, 0, gapStart);
+                System.arraycopy(starts, gapEnd, larger, gapEnd + grow, starts.length - gapEnd);
+                starts = larger;
+                gapEnd += grow;
+            }
+            System.arraycopy(added, 0, starts, gapStart, count);
+            gapStart += count;
+            length += n;
+            return line;
+        }
+
+        /**
+         * @return the starts of the lines that were joined to the line of 'where'
+         */
+        int[] remove(int where, int n) {
+            int first = lineOf(where) + 1;
+            int last = lineOf(where + n);
+            moveGap(last + 1);
+            int[] removed = Arrays.copyOfRange(starts, first, last + 1);
+            gapStart = first;
+            length -= n;
+            return removed;
+        }
+    }
+
+    /**
+     * The root element, its children are the lines of the file
+     */
+    private class LineRoot implements Element {
+
+        @Override
+        public Document getDocument() {
+            return LargeFileDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return lines.lineOf(Math.max(0, offset));
+        }
+
+        @Override
+        public int getElementCount() {
+            return lines.count();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            if (index < 0 || index >= lines.count()) {
+                return null;
+            }
+            return new Line(index);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    /**
+     * A single line, created on demand
+     */
+    private class Line implements Element {
+
+        private final int index;
+
+        Line(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Document getDocument() {
+            return LargeFileDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return lines.get(index);
+        }
+
+        @Override
+        public int getEndOffset() {
+            return index + 1 < lines.count() ? lines.get(index + 1) : getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package simplejavatexteditor;
+
+import java.util.Arrays;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Splits the text of a tab into tokens, one line at a time</h1>
+ *
+ * <p>
+ * A lexer sees a single line and the state the previous line ended in, and
+ * returns the state this line ends in. Lines can therefore be lexed again
+ * one by one after an edit: only when a line ends in a different state than
+ * before does the next line need lexing too.
+ * </p>
+ */
+public interface Lexer {
+
+    /**
+     * The state of the first line
+     */
+    int INITIAL = 0;
+
+    /**
+     * Token type of a keyword
+     */
+    int KEYWORD = 1;
+
+    /**
+     * Token type of a comment
+     */
+    int COMMENT = 2;
+
+    /**
+     * Token type of a string or char literal
+     */
+    int STRING = 3;
+
+    /**
+     * Lexes one line.
+     *
+     * @param line the text of the line, without its newline
+     * @param state the state the previous line ended in
+     * @param tokens receives the tokens, with offsets relative to the line
+     * @return the state at the end of the line
+     */
+    int lex(Segment line, int state, Tokens tokens);
+
+    /**
+     * Tells what a word is in this language, for completion and search.
+     *
+     * @param c a char
+     * @return true if c can be part of an identifier
+     */
+    default boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * A growable list of tokens, stored as (start, length, type) triples
+     */
+    final class Tokens {
+
+        private int[] data = new int[48];
+        private int size;
+
+        /**
+         * @param start the offset of the token
+         * @param length the length of the token
+         * @param type the type of the token
+         */
+        public void add(int start, int length, int type) {
+            if (size + 3 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = start;
+            data[size++] = length;
+            data[size++] = type;
+        }
+
+        /**
+         * @return the number of tokens
+         */
+        public int count() {
+            return size / 3;
+        }
+
+        public int start(int i) {
+            return data[3 * i];
+        }
+
+        public int length(int i) {
+            return data[3 * i + 1];
+        }
+
+        public int type(int i) {
+            return data[3 * i + 2];
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        /**
+         * @return a copy of the triples
+         */
+        public int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
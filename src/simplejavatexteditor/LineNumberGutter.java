@@ -0,0 +1,155 @@
+package simplejavatexteditor;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import javax.swing.JComponent;
+import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * <h1>Line numbers shown next to a text area</h1>
+ *
+ * <p>
+ * Meant as the row header of the text area's scroll pane. Nothing is stored
+ * per line: when painting, the lines inside the clip are found from the
+ * root element of the document and only their numbers are drawn, at the
+ * height the text area shows them. The width depends only on the number of
+ * digits of the last line, so it is recomputed when that changes, not on
+ * every edit.
+ * </p>
+ */
+public class LineNumberGutter extends JComponent implements DocumentListener, PropertyChangeListener {
+
+    private static final long serialVersionUID = 1L;
+    static final int MARGIN = 5;
+
+    private final JTextArea textArea;
+    private Document document;
+    private int digits;
+
+    /**
+     * @param textArea the text area whose lines are numbered
+     */
+    public LineNumberGutter(JTextArea textArea) {
+        this.textArea = textArea;
+        setBackground(Color.LIGHT_GRAY);
+        setOpaque(true);
+        setFont(textArea.getFont());
+        textArea.addPropertyChangeListener(this);
+        textArea.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                //Also when a wrapped line gains a row, which moves the lines below it
+                revalidate();
+                repaint();
+            }
+        });
+        setDocument(textArea.getDocument());
+    }
+
+    private void setDocument(Document doc) {
+        if (document != null) {
+            document.removeDocumentListener(this);
+        }
+        document = doc;
+        doc.addDocumentListener(this);
+        updateWidth(true);
+        repaint();
+    }
+
+    //Changes the width only if the number of digits (or the font) changed
+    private void updateWidth(boolean force) {
+        int lines = document.getDefaultRootElement().getElementCount();
+        int d = Math.max(2, Integer.toString(lines).length());
+        if (d != digits || force) {
+            digits = d;
+            revalidate();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics fm = getFontMetrics(getFont());
+        return new Dimension(2 * MARGIN + digits * fm.charWidth('0'), textArea.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setColor(getForeground());
+        g.setFont(getFont());
+        FontMetrics fm = g.getFontMetrics();
+        int ascent = textArea.getFontMetrics(textArea.getFont()).getAscent();
+
+        document.render(() -> {
+            Element root = document.getDefaultRootElement();
+            int first = root.getElementIndex(textArea.viewToModel2D(new Point(0, clip.y)));
+            int last = root.getElementIndex(textArea.viewToModel2D(new Point(0, clip.y + clip.height)));
+            try {
+                for (int line = first; line <= last; line++) {
+                    Rectangle2D r = textArea.modelToView2D(root.getElement(line).getStartOffset());
+                    if (r == null) {
+                        return;
+                    }
+                    String number = Integer.toString(line + 1);
+                    g.drawString(number, getWidth() - MARGIN - fm.stringWidth(number), (int) r.getY() + ascent);
+                }
+            } catch (BadLocationException ex) {
+                //The text area has no view yet
+            }
+        });
+    }
+
+    //Only an edit that adds or removes lines moves the numbers, the repaint is clipped to the viewport
+    private void linesChanged(DocumentEvent e) {
+        if (e.getChange(document.getDefaultRootElement()) != null) {
+            updateWidth(false);
+            repaint();
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        switch (evt.getPropertyName()) {
+            case "document":
+                setDocument(textArea.getDocument());
+                break;
+            case "font":
+                setFont(textArea.getFont());
+                updateWidth(true);
+                repaint();
+                break;
+            default:
+                break;
+        }
+    }
+}
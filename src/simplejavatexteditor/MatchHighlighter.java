@@ -0,0 +1,559 @@
+package simplejavatexteditor;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.SwingUtilities;
+import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+
+/**
+ * <h1>Highlights every match of the Find query and counts them</h1>
+ *
+ * <p>
+ * The matches are kept as two sorted int arrays of starts and ends, the
+ * same non-overlapping matches Replace All finds. They are counted on a
+ * background thread over a {@link PieceTableContent.Snapshot}; a newer
+ * query or text replaces a count still queued and stops one running.
+ * </p>
+ *
+ * <p>
+ * An edit does not count again. The matches before it stay, those after it
+ * move, and only the text from the last match before the edit is searched
+ * again, until a match lines up with one that was there before, from where
+ * on everything is as it was. A literal query needs the text up to its
+ * length before the edit, an expression the text from the last match on
+ * the lines before the edited one. An expression that may match a line end,
+ * see {@link RegexSearch#spansLines}, can reach into the edit from anywhere
+ * before it, so an edit counts its matches again in the background. So
+ * does an edit whose search runs too long or too far.
+ * </p>
+ *
+ * <p>
+ * Only the matches in the viewport, at most {@link #MAX_PAINTED}, become
+ * highlights, so there are never more highlights than fit on the screen.
+ * They follow scrolling like {@link SyntaxHighlighter}. The selected match
+ * is left to the selection. All the state of this class is only touched on
+ * the EDT.
+ * </p>
+ */
+public class MatchHighlighter implements DocumentListener, PropertyChangeListener {
+
+    //The most matches kept, more are not counted
+    static final int MAX_MATCHES = 1_000_000;
+    //The most highlights at a time
+    static final int MAX_PAINTED = 2000;
+    //How far past an edit, and how long, its matches are searched again on the EDT
+    static final int MAX_RESCAN = 64 * 1024;
+    static final long RESCAN_NANOS = 10_000_000L;
+
+    //One thread, a new count replaces the queued one
+    private static final ThreadPoolExecutor WORKER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread t = new Thread(r, "Match Counter");
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    private final JTextComponent textComponent;
+    private final Highlighter.HighlightPainter painter;
+    //Told when the count or the selected match changed
+    private final Runnable changed;
+    private Document document;
+
+    private String query = "";
+    private boolean regex;
+    private boolean matchCase;
+
+    //The matches, [starts[i], ends[i]) for i < count
+    private int[] starts = new int[0];
+    private int[] ends = new int[0];
+    private int count;
+    //There were more than MAX_MATCHES, later ones may be left out
+    private boolean truncated;
+    private boolean counting;
+    private String error;
+    //Changes with every edit and query, a count of an older one is dropped
+    private volatile long version;
+    //The index of the selected match, or -1
+    private int current = -1;
+
+    private final List<Object> painted = new ArrayList<>();
+    private boolean refreshScheduled;
+    private boolean recountScheduled;
+
+    //Scrolling moves the text component inside its viewport
+    private final ComponentListener scrollListener = new ComponentAdapter() {
+        @Override
+        public void componentMoved(ComponentEvent e) {
+            scheduleRefresh();
+        }
+
+        @Override
+        public void componentResized(ComponentEvent e) {
+            scheduleRefresh();
+        }
+    };
+    private final CaretListener caretListener = e -> updateCurrent();
+
+    /**
+     * @param textComponent the component to highlight in
+     * @param painter paints the matches
+     * @param changed run on the EDT when the count or the selected match
+     * changed
+     */
+    public MatchHighlighter(JTextComponent textComponent, Highlighter.HighlightPainter painter, Runnable changed) {
+        this.textComponent = textComponent;
+        this.painter = painter;
+        this.changed = changed;
+    }
+
+    /**
+     * Starts following the component.
+     */
+    public void install() {
+        textComponent.addPropertyChangeListener("document", this);
+        textComponent.addComponentListener(scrollListener);
+        textComponent.addCaretListener(caretListener);
+        document = textComponent.getDocument();
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Removes the highlights and stops following the component.
+     */
+    public void uninstall() {
+        textComponent.removePropertyChangeListener("document", this);
+        textComponent.removeComponentListener(scrollListener);
+        textComponent.removeCaretListener(caretListener);
+        if (document != null) {
+            document.removeDocumentListener(this);
+            document = null;
+        }
+        version++;
+        clearPainted();
+    }
+
+    /**
+     * Highlights the matches of a query, counting them again if it changed.
+     *
+     * @param query the text or expression, empty for none
+     * @param regex whether the query is a regular expression
+     * @param matchCase false to ignore case
+     */
+    public void setQuery(String query, boolean regex, boolean matchCase) {
+        if (query.equals(this.query) && regex == this.regex && matchCase == this.matchCase) {
+            return;
+        }
+        this.query = query;
+        this.regex = regex;
+        this.matchCase = matchCase;
+        recount();
+    }
+
+    /**
+     * @return the number of matches, as far as counted
+     */
+    public int getCount() {
+        return count;
+    }
+
+    //Where match i starts and ends, i < getCount()
+    int start(int i) {
+        return starts[i];
+    }
+
+    int end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * @return the number of the selected match from 1, or 0 if the
+     * selection is not a match
+     */
+    public int getCurrent() {
+        return current + 1;
+    }
+
+    /**
+     * @return whether there are more than {@link #MAX_MATCHES} matches
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return whether the matches are being counted
+     */
+    public boolean isCounting() {
+        return counting;
+    }
+
+    /**
+     * @return why the matches could not be counted, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        if (document != null) {
+            document.removeDocumentListener(this);
+        }
+        document = textComponent.getDocument();
+        document.addDocumentListener(this);
+        recount();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e.getOffset(), 0, e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e.getOffset(), e.getLength(), 0);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    //Drops the matches and counts them again in the background
+    private void recount() {
+        long v = ++version;
+        setMatches(new int[0], new int[0], 0);
+        truncated = false;
+        error = null;
+        counting = false;
+        if (query.isEmpty() || document == null) {
+            changed.run();
+            return;
+        }
+        Scanner scanner;
+        try {
+            scanner = new Scanner(snapshot());
+        } catch (PatternSyntaxException ex) {
+            error = "Invalid expression: " + ex.getDescription();
+            changed.run();
+            return;
+        }
+        counting = true;
+        changed.run();
+        BooleanSupplier stale = () -> version != v;
+        WORKER.execute(() -> {
+            if (stale.getAsBoolean()) {
+                return;
+            }
+            int length = scanner.text.length();
+            int[] s = new int[64];
+            int[] e = new int[64];
+            int n = 0;
+            boolean more = false;
+            String failed = null;
+            try {
+                for (int from = 0; scanner.next(from, length, stale); from = scanner.end) {
+                    if (n == MAX_MATCHES) {
+                        more = true;
+                        break;
+                    }
+                    if (n == s.length) {
+                        s = Arrays.copyOf(s, n * 2);
+                        e = Arrays.copyOf(e, n * 2);
+                    }
+                    s[n] = scanner.start;
+                    e[n] = scanner.end;
+                    n++;
+                }
+            } catch (RegexSearch.Stopped ex) {
+                if (ex.cancelled) {
+                    return;
+                }
+                failed = ex.getMessage();
+            }
+            int[] foundStarts = s;
+            int[] foundEnds = e;
+            int found = n;
+            boolean truncatedNow = more;
+            String errorNow = failed;
+            SwingUtilities.invokeLater(() -> {
+                if (!stale.getAsBoolean()) {
+                    counting = false;
+                    truncated = truncatedNow;
+                    error = errorNow;
+                    setMatches(foundStarts, foundEnds, errorNow == null ? found : 0);
+                    changed.run();
+                }
+            });
+        });
+    }
+
+    private PieceTableContent.Snapshot snapshot() {
+        PieceTableContent.Snapshot[] text = new PieceTableContent.Snapshot[1];
+        document.render(() -> text[0] = PieceTableContent.snapshot(document));
+        return text[0];
+    }
+
+    //'removed' chars at offset were replaced by 'inserted' ones
+    private void edited(int offset, int removed, int inserted) {
+        if (query.isEmpty()) {
+            return;
+        }
+        if (PieceTableDocument.isBatching(document)) {
+            //Counted once for the whole batch, when it is over
+            version++;
+            if (!recountScheduled) {
+                recountScheduled = true;
+                SwingUtilities.invokeLater(() -> {
+                    recountScheduled = false;
+                    if (document != null) {
+                        recount();
+                    }
+                });
+            }
+            return;
+        }
+        if (counting || error != null
+                || !(document instanceof PieceTableDocument || document instanceof LargeFileDocument)) {
+            //Nothing to update, or no cheap snapshot to search
+            recount();
+            return;
+        }
+        version++;
+        if (truncated && count > 0 && offset >= ends[count - 1]) {
+            //Past the matches kept, they stay as they are
+            return;
+        }
+        PieceTableContent.Snapshot text = PieceTableContent.snapshot(document);
+        Scanner scanner = new Scanner(text);
+        if (scanner.regexSearch != null && scanner.regexSearch.spansLines()) {
+            //A match may reach into the edit from any line before it
+            recount();
+            return;
+        }
+        int delta = inserted - removed;
+
+        //The matches that end before the text the edit may change stay
+        int keep;
+        int from;
+        if (regex) {
+            //Those of the lines before the edited one, less the last, which is searched again
+            int bound = document.getDefaultRootElement().getElement(
+                    document.getDefaultRootElement().getElementIndex(offset)).getStartOffset();
+            keep = lastEndAtMost(bound - 1);
+            keep = Math.max(0, keep - 1);
+            from = keep < count ? Math.min(starts[keep], bound) : bound;
+        } else {
+            keep = lastEndAtMost(offset);
+            from = Math.max(keep > 0 ? ends[keep - 1] : 0, offset - query.length() + 1);
+        }
+        //The matches after the edit move, the first one of them is 'tail'
+        int tail = firstStartAtLeast(offset + removed);
+
+        int limit = Math.min(text.length(), offset + inserted + MAX_RESCAN);
+        long deadline = System.nanoTime() + RESCAN_NANOS;
+        BooleanSupplier tooLong = () -> System.nanoTime() - deadline > 0;
+        int[] s = new int[8];
+        int[] e = new int[8];
+        int n = 0;
+        try {
+            while (true) {
+                if (!scanner.next(from, limit, tooLong)) {
+                    if (limit < text.length()) {
+                        recount();
+                        return;
+                    }
+                    //No match left, the moved ones are gone too, and none was left out
+                    tail = count;
+                    truncated = false;
+                    break;
+                }
+                if (scanner.end == limit && limit < text.length()) {
+                    //It may go on past the limit
+                    recount();
+                    return;
+                }
+                while (tail < count && starts[tail] + delta < scanner.start) {
+                    tail++;
+                }
+                if (tail < count && starts[tail] + delta == scanner.start && ends[tail] + delta == scanner.end) {
+                    //In step with the matches from before the edit again
+                    break;
+                }
+                if (n == s.length) {
+                    s = Arrays.copyOf(s, n * 2);
+                    e = Arrays.copyOf(e, n * 2);
+                }
+                s[n] = scanner.start;
+                e[n] = scanner.end;
+                n++;
+                from = scanner.end;
+            }
+        } catch (RegexSearch.Stopped ex) {
+            recount();
+            return;
+        }
+
+        if (keep + n > MAX_MATCHES) {
+            recount();
+            return;
+        }
+        int moved = Math.min(count - tail, MAX_MATCHES - keep - n);
+        int total = keep + n + moved;
+        if (moved < count - tail) {
+            truncated = true;
+        }
+        int[] newStarts = total <= starts.length ? starts : Arrays.copyOf(starts, Math.max(total, starts.length * 3 / 2));
+        int[] newEnds = total <= ends.length ? ends : Arrays.copyOf(ends, newStarts.length);
+        System.arraycopy(starts, tail, newStarts, keep + n, moved);
+        System.arraycopy(ends, tail, newEnds, keep + n, moved);
+        System.arraycopy(s, 0, newStarts, keep, n);
+        System.arraycopy(e, 0, newEnds, keep, n);
+        for (int i = keep + n; i < total; i++) {
+            newStarts[i] += delta;
+            newEnds[i] += delta;
+        }
+        setMatches(newStarts, newEnds, total);
+        changed.run();
+    }
+
+    //The number of matches ending at or before an offset
+    private int lastEndAtMost(int offset) {
+        int i = Arrays.binarySearch(ends, 0, count, offset);
+        if (i < 0) {
+            return -i - 1;
+        }
+        return i + 1;
+    }
+
+    //The index of the first match starting at or after an offset, or count
+    private int firstStartAtLeast(int offset) {
+        int i = Arrays.binarySearch(starts, 0, count, offset);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    private void setMatches(int[] starts, int[] ends, int count) {
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+        current = -1;
+        updateCurrent();
+        scheduleRefresh();
+    }
+
+    //Finds which match is selected, if any
+    private void updateCurrent() {
+        int i = firstStartAtLeast(textComponent.getSelectionStart());
+        int now = i < count && starts[i] == textComponent.getSelectionStart()
+                && ends[i] == textComponent.getSelectionEnd() ? i : -1;
+        if (now != current) {
+            current = now;
+            scheduleRefresh();
+            changed.run();
+        }
+    }
+
+    //Once per batch of edits and scrolls, after the views caught up
+    private void scheduleRefresh() {
+        if (!refreshScheduled) {
+            refreshScheduled = true;
+            SwingUtilities.invokeLater(() -> {
+                refreshScheduled = false;
+                refresh();
+            });
+        }
+    }
+
+    //Highlights the matches in the viewport, the others are dropped
+    private void refresh() {
+        clearPainted();
+        Rectangle visible = textComponent.getVisibleRect();
+        if (count == 0 || document == null || visible.isEmpty()) {
+            return;
+        }
+        int first = textComponent.viewToModel2D(new Point(0, visible.y));
+        int last = textComponent.viewToModel2D(new Point(textComponent.getWidth(), visible.y + visible.height));
+        Highlighter highlighter = textComponent.getHighlighter();
+        int length = document.getLength();
+        for (int i = lastEndAtMost(first); i < count && starts[i] <= last && painted.size() < MAX_PAINTED; i++) {
+            if (i == current || ends[i] > length) {
+                continue;
+            }
+            try {
+                painted.add(highlighter.addHighlight(starts[i], ends[i], painter));
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void clearPainted() {
+        Highlighter highlighter = textComponent.getHighlighter();
+        for (Object tag : painted) {
+            highlighter.removeHighlight(tag);
+        }
+        painted.clear();
+    }
+
+    /**
+     * Finds the matches of the query in a text one after the other, on one
+     * thread
+     */
+    private final class Scanner {
+
+        final PieceTableContent.Snapshot text;
+        private final TextSearch search;
+        final RegexSearch regexSearch;
+        //The last match found
+        int start;
+        int end;
+
+        Scanner(PieceTableContent.Snapshot text) {
+            this.text = text;
+            this.search = regex ? null : new TextSearch(query, matchCase);
+            this.regexSearch = regex ? new RegexSearch(query, matchCase) : null;
+        }
+
+        //Finds the first match in [from, to), throws Stopped if stop said so
+        boolean next(int from, int to, BooleanSupplier stop) {
+            if (search != null) {
+                int i = search.indexOf(text, from, to, stop);
+                if (i == -1) {
+                    if (stop.getAsBoolean()) {
+                        throw new RegexSearch.Stopped("The search was cancelled", true);
+                    }
+                    return false;
+                }
+                start = i;
+                end = i + search.length();
+                return true;
+            }
+            int[] match = regexSearch.find(text, from, to, stop);
+            if (match == null) {
+                return false;
+            }
+            start = match[0];
+            end = match[1];
+            return true;
+        }
+    }
+}
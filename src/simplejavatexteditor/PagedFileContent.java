@@ -0,0 +1,364 @@
+package simplejavatexteditor;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * <h1>Read-only document content read from a file page by page</h1>
+ *
+ * <p>
+ * The file is split into pages of {@link #PAGE_BYTES} bytes that always end
+ * on a UTF-8 character boundary. Opening the file makes one decoding pass
+ * to record where every page and every line starts (in chars), nothing else
+ * is kept. Pages are read and decoded again on demand and only the
+ * {@link #RESIDENT_PAGES} most recently used ones stay in memory, so the
+ * heap cost does not depend on the file size.
+ * </p>
+ *
+ * <p>
+ * The file is read with positional reads through a channel that stays open,
+ * it is not memory-mapped: a mapping cannot be released, and on Windows a
+ * mapped file cannot be replaced. Saving renames a new file over it, the
+ * channel goes on reading the replaced one, which stays the base of the
+ * document's pieces until the content is garbage collected.
+ * </p>
+ *
+ * <p>
+ * Line ends are normalized while a page is decoded, as {@link FileLoader}
+ * does for smaller files: "\r\n" and a lone '\r' become '\n'. All char
+ * offsets are in the normalized text, the same offsets Find in Files and
+ * the project index give for the file. A "\r\n" split by a page boundary
+ * is seen from the byte after the page.
+ * </p>
+ */
+public class PagedFileContent implements AbstractDocument.Content {
+
+    static final int PAGE_BYTES = 1 << 16;
+    static final int RESIDENT_PAGES = 32;
+
+    private final FileChannel channel;
+    private final int size;
+    private final int[] pageByteStart;
+    private final int[] pageCharStart;
+    private final int pageCount;
+    private final int charLength;
+    private final int[] lineStarts;
+    private final int lineCount;
+    private final CharsetDecoder decoder = newDecoder();
+    //A page and the byte after it
+    private final ByteBuffer bytes = ByteBuffer.allocate(PAGE_BYTES + 1);
+
+    //Decoded pages, least recently used first
+    private final Map<Integer, char[]> resident = new LinkedHashMap<Integer, char[]>(RESIDENT_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+            return size() > RESIDENT_PAGES;
+        }
+    };
+
+    private PagedFileContent(FileChannel channel, int size, int[] pageByteStart, int[] pageCharStart,
+            int pageCount, int[] lineStarts, int lineCount) {
+        this.channel = channel;
+        this.size = size;
+        this.pageByteStart = pageByteStart;
+        this.pageCharStart = pageCharStart;
+        this.pageCount = pageCount;
+        this.charLength = pageCharStart[pageCount];
+        this.lineStarts = lineStarts;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Opens the file and builds the page and line index.
+     *
+     * @param file the file to open, must be smaller than 2 GB
+     * @return the content for the file
+     * @throws IOException if the file cannot be read
+     */
+    public static PagedFileContent open(File file) throws IOException {
+        return open(file, percent -> {});
+    }
+
+    /**
+     * Opens the file and builds the page and line index, reporting how far
+     * the indexing pass got. Interrupting the calling thread aborts it.
+     *
+     * @param file the file to open, must be smaller than 2 GB
+     * @param progress receives the percentage of the file indexed so far
+     * @return the content for the file
+     * @throws IOException if the file cannot be read or indexing was interrupted
+     */
+    public static PagedFileContent open(File file, IntConsumer progress) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return index(file, channel, progress);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static PagedFileContent index(File file, FileChannel channel, IntConsumer progress) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException(file.getName() + " is too large to open");
+        }
+        int size = (int) channel.size();
+        int[] byteStarts = new int[size / PAGE_BYTES + 2];
+        int[] charStarts = new int[byteStarts.length];
+        int[] lines = new int[1024];
+        int lineCount = 1;
+        int pages = 0;
+        int chars = 0;
+
+        CharsetDecoder decoder = newDecoder();
+        ByteBuffer in = ByteBuffer.allocate(PAGE_BYTES + 1);
+        CharBuffer out = CharBuffer.allocate(PAGE_BYTES);
+        int start = 0;
+        while (start < size) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing of " + file.getName() + " was cancelled");
+            }
+            int read = Math.min(PAGE_BYTES + 1, size - start);
+            read(channel, start, read, in);
+            int end = start + pageEnd(in, read);
+            if (pages + 1 == byteStarts.length) {
+                byteStarts = Arrays.copyOf(byteStarts, (pages + 1) * 2);
+                charStarts = Arrays.copyOf(charStarts, (pages + 1) * 2);
+            }
+            byteStarts[pages] = start;
+            charStarts[pages] = chars;
+            pages++;
+
+            decode(decoder, in, end - start, out);
+            int n = normalize(out.array(), out.remaining(), lfAt(in, end - start, read));
+            for (int i = 0; i < n; i++) {
+                if (out.get(i) == '\n') {
+                    if (lineCount == lines.length) {
+                        lines = Arrays.copyOf(lines, lineCount * 2);
+                    }
+                    lines[lineCount++] = chars + i + 1;
+                }
+            }
+            chars += n;
+            start = end;
+            progress.accept((int) (100L * start / size));
+        }
+        byteStarts[pages] = size;
+        charStarts[pages] = chars;
+
+        return new PagedFileContent(channel, size, byteStarts, charStarts, pages, lines, lineCount);
+    }
+
+    //Reads count bytes at position into the start of the buffer
+    private static void read(FileChannel channel, long position, int count, ByteBuffer into) throws IOException {
+        into.clear().limit(count);
+        while (into.hasRemaining()) {
+            if (channel.read(into, position + into.position()) < 0) {
+                throw new EOFException("The file was shortened while it was open");
+            }
+        }
+    }
+
+    private static CharsetDecoder newDecoder() {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Moves the end of a page back so that it does not split a
+     * multi-byte UTF-8 sequence.
+     *
+     * @param in the bytes from the page start, one more than a page if the file has them
+     * @param read the number of bytes in it
+     * @return the length of the page
+     */
+    private static int pageEnd(ByteBuffer in, int read) {
+        int end = Math.min(PAGE_BYTES, read);
+        for (int i = 0; i < 3 && end < read && end > 1; i++) {
+            if ((in.get(end) & 0xC0) != 0x80) {
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer bytes, int length, CharBuffer out) {
+        ByteBuffer in = bytes.duplicate();
+        in.limit(length).position(0);
+        out.clear();
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        out.flip();
+    }
+
+    private static boolean lfAt(ByteBuffer in, int at, int read) {
+        return at < read && in.get(at) == '\n';
+    }
+
+    /**
+     * Turns "\r\n" and a lone '\r' into '\n' in place. A '\r' ending the
+     * page is dropped when the next page starts with '\n', which stays.
+     *
+     * @return the number of chars left
+     */
+    private static int normalize(char[] chars, int count, boolean lfNext) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            char c = chars[i];
+            if (c == '\r') {
+                if (i + 1 < count ? chars[i + 1] == '\n' : lfNext) {
+                    continue;
+                }
+                c = '\n';
+            }
+            chars[n++] = c;
+        }
+        return n;
+    }
+
+    private char[] page(int index) {
+        char[] chars = resident.get(index);
+        if (chars == null) {
+            int start = pageByteStart[index];
+            int length = pageByteStart[index + 1] - start;
+            int read = Math.min(length + 1, size - start);
+            try {
+                read(channel, start, read, bytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            CharBuffer out = CharBuffer.allocate(length);
+            decode(decoder, bytes, length, out);
+            int n = normalize(out.array(), out.remaining(), lfAt(bytes, length, read));
+            chars = Arrays.copyOf(out.array(), n);
+            resident.put(index, chars);
+        }
+        return chars;
+    }
+
+    private int pageOf(int offset) {
+        int i = Arrays.binarySearch(pageCharStart, 0, pageCount, offset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * @return the number of lines in the file
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @param line the line index
+     * @return the char offset at which the line starts
+     */
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * @param offset a char offset in the content
+     * @return the index of the line containing the offset
+     */
+    public int getLineOfOffset(int offset) {
+        int i = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        return () -> offset;
+    }
+
+    @Override
+    public int length() {
+        //Like GapContent, the content always ends with an implied newline
+        return charLength + 1;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        throw new BadLocationException("File content is read-only", where);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        throw new BadLocationException("File content is read-only", where);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return s.toString();
+    }
+
+    @Override
+    public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid range", where);
+        }
+        if (len == 0) {
+            txt.array = new char[0];
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+
+        if (where < charLength) {
+            int page = pageOf(where);
+            int pageEnd = pageCharStart[page + 1];
+            if (where + len <= pageEnd || txt.isPartialReturn()) {
+                //The range starts in one decoded page, hand it out without copying
+                txt.array = page(page);
+                txt.offset = where - pageCharStart[page];
+                txt.count = Math.min(len, pageEnd - where);
+                return;
+            }
+        }
+
+        char[] copy = new char[len];
+        int done = 0;
+        while (done < len) {
+            int offset = where + done;
+            if (offset >= charLength) {
+                copy[done++] = '\n';
+                continue;
+            }
+            int page = pageOf(offset);
+            char[] chars = page(page);
+            int from = offset - pageCharStart[page];
+            int n = Math.min(len - done, chars.length - from);
+            System.arraycopy(chars, from, copy, done, n);
+            done += n;
+        }
+        txt.array = copy;
+        txt.offset = 0;
+        txt.count = len;
+    }
+}
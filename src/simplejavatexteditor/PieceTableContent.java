@@ -0,0 +1,705 @@
+package simplejavatexteditor;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * <h1>Document content stored as a piece table</h1>
+ *
+ * <p>
+ * The text is a sequence of pieces, each one a range of either the original
+ * content (e.g. a {@link PagedFileContent}, which is never copied) or of an
+ * append-only buffer holding everything typed since. The pieces are kept in
+ * a persistent treap ordered by position, so an insert or remove costs
+ * O(log n) whatever the size of the text, and typing at one spot keeps
+ * growing the same piece instead of adding new ones.
+ * </p>
+ *
+ * <p>
+ * Nodes are never changed once built, an edit copies only the path it
+ * touches. A {@link Snapshot} is therefore just the current root: taking one
+ * is O(1), and it can be read on any thread while the document goes on
+ * being edited.
+ * </p>
+ *
+ * <p>
+ * Positions are kept like GapContent does: marks before the last edit
+ * point hold their offset, marks after it hold their distance from the end,
+ * so an edit only touches the marks between it and the previous one. The
+ * mark array has its free slots at that split too, so the positions of the
+ * lines of a big insert are added one after the other without moving the
+ * marks behind them.
+ * </p>
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+
+    static final int BLOCK = 8 * 1024;
+    private static final char[] NEWLINE = {'\n'};
+
+    private final AbstractDocument.Content original;
+    private volatile Node root;
+
+    //Append-only buffer for inserted text, a full block is never written again
+    private char[] block = new char[BLOCK];
+    private int fill;
+
+    //Filled by split()
+    private Node splitLeft;
+    private Node splitRight;
+
+    private Mark[] marks = new Mark[16];
+    private int markCount;
+    //Marks below this index store their offset, the others their distance from the end
+    private int markSplit;
+    //Free slots of the array, right at the split: mark i is at i, or at i + markGap from the split on
+    private int markGap = 16;
+    private int clearedMarks;
+    private final ReferenceQueue<StickyPosition> queue = new ReferenceQueue<>();
+
+    /**
+     * A run of chars, in 'array' if it was inserted, or in the original content if 'array' is null
+     */
+    private static final class Node {
+        final char[] array;
+        final int start;
+        final int length;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(char[] array, int start, int length, int priority, Node left, Node right) {
+            this.array = array;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(array, start, length, priority, left, right);
+        }
+    }
+
+    /**
+     * Creates an empty content.
+     */
+    public PieceTableContent() {
+        this(null);
+    }
+
+    /**
+     * Creates a content holding the text of another one, which is read
+     * piece by piece when needed and must not change afterwards.
+     *
+     * @param original the initial text, ending with the implied newline
+     */
+    public PieceTableContent(AbstractDocument.Content original) {
+        this.original = original;
+        Node newline = new Node(NEWLINE, 0, 1, priority(), null, null);
+        int chars = original != null ? original.length() - 1 : 0;
+        root = chars > 0 ? merge(new Node(null, 0, chars, priority(), null, null), newline) : newline;
+    }
+
+    private static int priority() {
+        return ThreadLocalRandom.current().nextInt();
+    }
+
+    private static int size(Node t) {
+        return t == null ? 0 : t.size;
+    }
+
+    /**
+     * @return the current text, readable on any thread
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(root, original);
+    }
+
+    /**
+     * Takes a snapshot of any document: O(1) for documents stored in a piece
+     * table, a copy of the text otherwise. Call it holding the read lock, or
+     * from a document listener.
+     *
+     * @param doc the document
+     * @return its current text
+     */
+    public static Snapshot snapshot(Document doc) {
+        if (doc instanceof PieceTableDocument) {
+            return ((PieceTableDocument) doc).snapshot();
+        }
+        if (doc instanceof LargeFileDocument) {
+            return ((LargeFileDocument) doc).snapshot();
+        }
+        PieceTableContent copy = new PieceTableContent();
+        try {
+            copy.insertString(0, doc.getText(0, doc.getLength()));
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return copy.snapshot();
+    }
+
+    @Override
+    public int length() {
+        return root.size;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        purgeMarks();
+        int i = findMark(offset);
+        for (int j = i; j < markCount && offsetOf(mark(j)) == offset; j++) {
+            StickyPosition pos = mark(j).get();
+            if (pos != null) {
+                return pos;
+            }
+        }
+        StickyPosition pos = new StickyPosition();
+        Mark mark = new Mark(pos, offset);
+        pos.mark = mark;
+        if (markGap == 0) {
+            Mark[] grown = new Mark[marks.length * 2];
+            System.arraycopy(marks, 0, grown, 0, markSplit);
+            System.arraycopy(marks, markSplit, grown, grown.length - (markCount - markSplit), markCount - markSplit);
+            marks = grown;
+            markGap = grown.length - markCount;
+        }
+        //Only the marks between i and the split move
+        if (i <= markSplit) {
+            System.arraycopy(marks, i, marks, i + 1, markSplit - i);
+            marks[i] = mark;
+            markSplit++;
+        } else {
+            System.arraycopy(marks, markSplit + markGap, marks, markSplit + markGap - 1, i - markSplit);
+            marks[i + markGap - 1] = mark;
+            mark.fromEnd = true;
+            mark.value = offset - length();
+        }
+        markGap--;
+        markCount++;
+        return pos;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length()) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        int n = str.length();
+        if (n == 0) {
+            return null;
+        }
+        char[] array;
+        int start;
+        if (n > BLOCK / 4) {
+            //Large inserts (pastes, loading) get their own array
+            array = str.toCharArray();
+            start = 0;
+        } else {
+            if (fill + n > BLOCK) {
+                block = new char[BLOCK];
+                fill = 0;
+            }
+            array = block;
+            start = fill;
+            str.getChars(0, n, block, fill);
+            fill += n;
+        }
+
+        moveMarkSplit(where, where == 0);
+        split(root, where);
+        Node left = splitLeft;
+        Node right = splitRight;
+        Node last = left;
+        while (last != null && last.right != null) {
+            last = last.right;
+        }
+        if (last != null && last.array == array && last.start + last.length == start) {
+            //Typing at the end of the previous insert grows its piece
+            left = extendLast(left, n);
+        } else {
+            left = merge(left, new Node(array, start, n, priority(), null, null));
+        }
+        root = merge(left, right);
+        return new InsertUndo(where, n);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length()) {
+            throw new BadLocationException("Invalid remove", where + nitems);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        List<Object> undoPositions = collectMarks(where, where + nitems);
+        Node removed = cut(where, nitems);
+        return new RemoveUndo(where, removed, undoPositions);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return new String(s.array, s.offset, s.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        read(root, original, where, len, txt);
+    }
+
+    //Removes a range and returns it as a subtree, the marks in it collapse to 'where'
+    private Node cut(int where, int nitems) {
+        moveMarkSplit(where + nitems, true);
+        for (int i = markSplit - 1; i >= 0 && marks[i].value > where; i--) {
+            marks[i].value = where;
+        }
+        split(root, where);
+        Node left = splitLeft;
+        split(splitRight, nitems);
+        Node removed = splitLeft;
+        root = merge(left, splitRight);
+        return removed;
+    }
+
+    //Puts back a subtree taken by cut()
+    private void paste(int where, Node piece) {
+        moveMarkSplit(where, where == 0);
+        split(root, where);
+        root = merge(merge(splitLeft, piece), splitRight);
+    }
+
+    private void split(Node t, int offset) {
+        if (t == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        int leftSize = size(t.left);
+        if (offset <= leftSize) {
+            split(t.left, offset);
+            splitRight = t.with(splitRight, t.right);
+        } else if (offset >= leftSize + t.length) {
+            split(t.right, offset - leftSize - t.length);
+            splitLeft = t.with(t.left, splitLeft);
+        } else {
+            //The offset falls inside this piece, it becomes two
+            int cut = offset - leftSize;
+            splitLeft = new Node(t.array, t.start, cut, t.priority, t.left, null);
+            splitRight = new Node(t.array, t.start + cut, t.length - cut, t.priority, null, t.right);
+        }
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    private static Node extendLast(Node t, int n) {
+        if (t.right == null) {
+            return new Node(t.array, t.start, t.length + n, t.priority, t.left, null);
+        }
+        return t.with(t.left, extendLast(t.right, n));
+    }
+
+    private static void read(Node root, AbstractDocument.Content original, int where, int len, Segment txt)
+            throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > size(root)) {
+            throw new BadLocationException("Invalid range", where);
+        }
+        if (len == 0) {
+            txt.array = NEWLINE;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        //Find the piece holding 'where'
+        Node t = root;
+        int offset = where;
+        while (true) {
+            int leftSize = size(t.left);
+            if (offset < leftSize) {
+                t = t.left;
+            } else if (offset >= leftSize + t.length) {
+                offset -= leftSize + t.length;
+                t = t.right;
+            } else {
+                offset -= leftSize;
+                break;
+            }
+        }
+        int available = t.length - offset;
+        if (len <= available || txt.isPartialReturn()) {
+            //The range starts in one piece, hand it out without copying
+            int n = Math.min(len, available);
+            if (t.array != null) {
+                txt.array = t.array;
+                txt.offset = t.start + offset;
+                txt.count = n;
+            } else {
+                original.getChars(t.start + offset, n, txt);
+            }
+            return;
+        }
+        char[] copy = new char[len];
+        copy(root, original, where, where + len, copy, 0, new Segment());
+        txt.array = copy;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    //Copies the chars of [from, to) of the subtree, which starts at document offset 'base'
+    private static void copy(Node t, AbstractDocument.Content original, int from, int to, char[] dst, int base,
+            Segment scratch) throws BadLocationException {
+        if (t == null || to <= base || from >= base + t.size) {
+            return;
+        }
+        int start = base + size(t.left);
+        copy(t.left, original, from, to, dst, base, scratch);
+        int a = Math.max(from, start);
+        int b = Math.min(to, start + t.length);
+        if (a < b) {
+            int n = b - a;
+            int at = a - from;
+            if (t.array != null) {
+                System.arraycopy(t.array, t.start + a - start, dst, at, n);
+            } else {
+                int pos = t.start + a - start;
+                scratch.setPartialReturn(true);
+                while (n > 0) {
+                    original.getChars(pos, n, scratch);
+                    System.arraycopy(scratch.array, scratch.offset, dst, at, scratch.count);
+                    pos += scratch.count;
+                    at += scratch.count;
+                    n -= scratch.count;
+                }
+            }
+        }
+        copy(t.right, original, from, to, dst, start + t.length, scratch);
+    }
+
+    /**
+     * A position that moves with the text around it
+     */
+    private final class StickyPosition implements Position {
+
+        private Mark mark;
+
+        @Override
+        public int getOffset() {
+            return offsetOf(mark);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    /**
+     * The offset of a position, dropped once nothing uses the position
+     */
+    private final class Mark extends WeakReference<StickyPosition> {
+
+        int value;
+        boolean fromEnd;
+
+        Mark(StickyPosition pos, int value) {
+            super(pos, queue);
+            this.value = value;
+        }
+    }
+
+    //The mark at index i, in order of offset
+    private Mark mark(int i) {
+        return i < markSplit ? marks[i] : marks[i + markGap];
+    }
+
+    private int offsetOf(Mark mark) {
+        return mark.fromEnd ? mark.value + length() : mark.value;
+    }
+
+    //Index of the first mark at or after the offset
+    private int findMark(int offset) {
+        int lo = 0;
+        int hi = markCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsetOf(mark(mid)) < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    //Moves the split so that exactly the marks before 'boundary' (or at it, if inclusive) store their offset
+    private void moveMarkSplit(int boundary, boolean inclusive) {
+        int length = length();
+        while (markSplit > 0) {
+            Mark m = marks[markSplit - 1];
+            if (m.value < boundary || (inclusive && m.value == boundary)) {
+                break;
+            }
+            m.value -= length;
+            m.fromEnd = true;
+            markSplit--;
+            marks[markSplit] = null;
+            marks[markSplit + markGap] = m;
+        }
+        while (markSplit < markCount) {
+            Mark m = marks[markSplit + markGap];
+            int offset = m.value + length;
+            if (offset > boundary || (!inclusive && offset == boundary)) {
+                break;
+            }
+            m.value = offset;
+            m.fromEnd = false;
+            marks[markSplit + markGap] = null;
+            marks[markSplit] = m;
+            markSplit++;
+        }
+    }
+
+    private void purgeMarks() {
+        while (queue.poll() != null) {
+            clearedMarks++;
+        }
+        if (clearedMarks < 32 || clearedMarks < markCount / 2) {
+            return;
+        }
+        int kept = 0;
+        int split = 0;
+        for (int i = 0; i < markCount; i++) {
+            Mark m = mark(i);
+            if (m.get() != null) {
+                if (i < markSplit) {
+                    split++;
+                }
+                marks[kept++] = m;
+            }
+        }
+        //The gap goes back to the split
+        System.arraycopy(marks, split, marks, marks.length - (kept - split), kept - split);
+        Arrays.fill(marks, split, marks.length - (kept - split), null);
+        markCount = kept;
+        markSplit = split;
+        markGap = marks.length - kept;
+        clearedMarks = 0;
+    }
+
+    //The marks in [from, to] with their offsets, so undoing a remove can put them back
+    private List<Object> collectMarks(int from, int to) {
+        List<Object> found = new ArrayList<>();
+        for (int i = findMark(from); i < markCount; i++) {
+            Mark m = mark(i);
+            int offset = offsetOf(m);
+            if (offset > to) {
+                break;
+            }
+            if (m.get() != null) {
+                found.add(m);
+                found.add(offset);
+            }
+        }
+        return found;
+    }
+
+    private void restoreMarks(List<Object> saved, int from, int to) {
+        //Every saved mark is somewhere in [from, to] now, in no particular order
+        int a = findMark(from);
+        int b = findMark(to + 1);
+        int length = length();
+        for (int i = 0; i < saved.size(); i += 2) {
+            Mark m = (Mark) saved.get(i);
+            int offset = (Integer) saved.get(i + 1);
+            m.value = m.fromEnd ? offset - length : offset;
+        }
+        Mark[] range = new Mark[b - a];
+        for (int i = a; i < b; i++) {
+            range[i - a] = mark(i);
+        }
+        Arrays.sort(range, (x, y) -> Integer.compare(offsetOf(x), offsetOf(y)));
+        for (int i = a; i < b; i++) {
+            Mark m = range[i - a];
+            int offset = offsetOf(m);
+            m.fromEnd = i >= markSplit;
+            m.value = m.fromEnd ? offset - length : offset;
+            marks[i < markSplit ? i : i + markGap] = m;
+        }
+    }
+
+    private final class InsertUndo extends AbstractUndoableEdit {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private Node inserted;
+        private List<Object> positions;
+
+        InsertUndo(int where, int length) {
+            this.where = where;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            positions = collectMarks(where, where + length);
+            inserted = cut(where, length);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            paste(where, inserted);
+            restoreMarks(positions, where, where + length);
+            inserted = null;
+            positions = null;
+        }
+    }
+
+    private final class RemoveUndo extends AbstractUndoableEdit {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private Node removed;
+        private List<Object> positions;
+
+        RemoveUndo(int where, Node removed, List<Object> positions) {
+            this.where = where;
+            this.length = removed.size;
+            this.removed = removed;
+            this.positions = positions;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            paste(where, removed);
+            restoreMarks(positions, where, where + length);
+            removed = null;
+            positions = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            positions = collectMarks(where, where + length);
+            removed = cut(where, length);
+        }
+    }
+
+    /**
+     * <h1>The text of a {@link PieceTableContent} at one point in time</h1>
+     *
+     * <p>
+     * Holds the document text without the implied final newline. Reads go
+     * to the shared pieces, the last piece used is remembered so scanning
+     * the text char by char is cheap. Use one snapshot per reading thread.
+     * </p>
+     */
+    public static final class Snapshot implements CharSequence {
+
+        private final Node root;
+        private final AbstractDocument.Content original;
+        private final int length;
+        private final Segment piece = new Segment();
+        private int pieceStart;
+
+        private Snapshot(Node root, AbstractDocument.Content original) {
+            this.root = root;
+            this.original = original;
+            this.length = root.size - 1;
+            piece.setPartialReturn(true);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+            }
+            if (index < pieceStart || index >= pieceStart + piece.count) {
+                try {
+                    read(root, original, index, length - index, piece);
+                } catch (BadLocationException ex) {
+                    throw new IndexOutOfBoundsException(ex.getMessage());
+                }
+                pieceStart = index;
+            }
+            return piece.array[piece.offset + index - pieceStart];
+        }
+
+        /**
+         * Reads a range like {@link AbstractDocument.Content#getChars}, with
+         * support for partial return.
+         *
+         * @param where the start of the range
+         * @param len the number of chars
+         * @param txt receives the chars
+         * @throws BadLocationException if the range is outside the text
+         */
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where + len > length) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+            read(root, original, where, len, txt);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range " + start + ".." + end + ", length " + length);
+            }
+            Segment s = new Segment();
+            try {
+                read(root, original, start, end - start, s);
+            } catch (BadLocationException ex) {
+                throw new IndexOutOfBoundsException(ex.getMessage());
+            }
+            return new String(s.array, s.offset, s.count);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+    }
+}
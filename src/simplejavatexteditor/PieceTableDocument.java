@@ -0,0 +1,90 @@
+package simplejavatexteditor;
+
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.undo.CompoundEdit;
+
+/**
+ * <h1>Plain text document stored in a {@link PieceTableContent}</h1>
+ *
+ * <p>
+ * Used by every tab that is not in large file mode. Background readers
+ * take a {@link #snapshot()} under the read lock and then read it without
+ * holding any lock.
+ * </p>
+ */
+public class PieceTableDocument extends PlainDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    //Collects the undo of the edits of a batch
+    private transient CompoundEdit batching;
+
+    public PieceTableDocument() {
+        super(new PieceTableContent());
+    }
+
+    /**
+     * @return the current text, readable on any thread
+     */
+    public PieceTableContent.Snapshot snapshot() {
+        return ((PieceTableContent) getContent()).snapshot();
+    }
+
+    /**
+     * Runs several edits as one: other threads never see the text between
+     * them and undo listeners get them as one compound edit. Call on the
+     * EDT.
+     *
+     * @param edits the edits
+     */
+    public void batch(Runnable edits) {
+        writeLock();
+        try {
+            CompoundEdit compound = new CompoundEdit();
+            batching = compound;
+            try {
+                edits.run();
+            } finally {
+                batching = null;
+                compound.end();
+            }
+            if (compound.isSignificant()) {
+                super.fireUndoableEditUpdate(new UndoableEditEvent(this, compound));
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * @return whether a {@link #batch} is running
+     */
+    public boolean isBatching() {
+        return batching != null;
+    }
+
+    /**
+     * Tells a document listener that an edit is one of a batch, so it can
+     * leave its work until the batch is over, with an invokeLater.
+     *
+     * @param doc any document
+     * @return whether doc is running a batch of edits
+     */
+    public static boolean isBatching(Document doc) {
+        if (doc instanceof PieceTableDocument) {
+            return ((PieceTableDocument) doc).isBatching();
+        }
+        return doc instanceof LargeFileDocument && ((LargeFileDocument) doc).isBatching();
+    }
+
+    @Override
+    protected void fireUndoableEditUpdate(UndoableEditEvent e) {
+        if (batching != null) {
+            batching.addEdit(e.getEdit());
+        } else {
+            super.fireUndoableEditUpdate(e);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package simplejavatexteditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>The classes, methods and functions of a project directory</h1>
+ *
+ * <p>
+ * The tree is walked by a fork-join pool, a task per directory and per file
+ * to read, so big directories are shared between threads. Each Java, C++
+ * and Python file is lexed with the lexer of its {@link Language}, comments
+ * and strings are blanked, and the declarations left are found with a few
+ * patterns per language. Symbols keep the char offset in the file as the
+ * editor loads it.
+ * </p>
+ *
+ * <p>
+ * The result is saved, compressed, in {@link #DIRECTORY}, with the size and
+ * modification time of every file. The next update, after a restart too,
+ * reads only the files whose size or time changed.
+ * </p>
+ */
+public class ProjectIndex {
+
+    static final File DIRECTORY = new File(System.getProperty("ste.indexDir",
+            System.getProperty("user.home") + File.separator + ".simplejavatexteditor" + File.separator + "index"));
+    //Bigger files are generated or data, not worth indexing
+    static final long MAX_FILE_SIZE = 4L * 1024 * 1024;
+    private static final int MAGIC = 0x53544958;
+    private static final int VERSION = 1;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * What a symbol declares
+     */
+    public enum Kind {
+        CLASS, METHOD, FUNCTION
+    }
+
+    /**
+     * A declaration found in a file
+     */
+    public static final class Symbol {
+
+        public final String name;
+        public final Kind kind;
+        public final File file;
+        public final int offset;
+
+        Symbol(String name, Kind kind, File file, int offset) {
+            this.name = name;
+            this.kind = kind;
+            this.file = file;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + kind.name().toLowerCase() + ", " + file.getName() + ")";
+        }
+    }
+
+    //The symbols of one file, as parallel arrays
+    private static final class Entry {
+        final long modified;
+        final long size;
+        final String[] names;
+        final byte[] kinds;
+        final int[] offsets;
+
+        Entry(long modified, long size, String[] names, byte[] kinds, int[] offsets) {
+            this.modified = modified;
+            this.size = size;
+            this.names = names;
+            this.kinds = kinds;
+            this.offsets = offsets;
+        }
+    }
+
+    private final Path root;
+    private final File store;
+    //Relative path to symbols, replaced as a whole by each update
+    private volatile Map<String, Entry> files;
+    //All symbols, by name
+    private volatile Symbol[] symbols = new Symbol[0];
+    private boolean running;
+    private boolean again;
+
+    /**
+     * @param root the project directory
+     */
+    public ProjectIndex(File root) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        store = new File(DIRECTORY, Integer.toHexString(this.root.toString().hashCode()) + ".idx");
+    }
+
+    /**
+     * @return the project directory
+     */
+    public File getRoot() {
+        return root.toFile();
+    }
+
+    /**
+     * Brings the index up to date in the background. Called again while
+     * running, it runs once more afterwards. Call on the EDT.
+     *
+     * @param done run on the EDT when the index is up to date, or null
+     */
+    public void update(Runnable done) {
+        if (running) {
+            again = true;
+            return;
+        }
+        running = true;
+        POOL.execute(() -> {
+            try {
+                if (files == null) {
+                    files = load();
+                    symbols = sort(files);
+                }
+                Map<String, Entry> updated = new ConcurrentHashMap<>();
+                new Walk(root, files, updated).invoke();
+                files = updated;
+                symbols = sort(updated);
+                save(updated);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+            SwingUtilities.invokeLater(() -> {
+                running = false;
+                if (again) {
+                    again = false;
+                    update(done);
+                } else if (done != null) {
+                    done.run();
+                }
+            });
+        });
+    }
+
+    /**
+     * Visits the distinct names starting with a prefix, in alphabetical
+     * order, with the number of symbols of that name. Safe on any thread.
+     *
+     * @param prefix the prefix
+     * @param visitor gets the names until it returns false
+     * @return false if the visitor stopped
+     */
+    public boolean forEach(CharSequence prefix, FuzzyCompleter.Visitor visitor) {
+        Symbol[] all = symbols;
+        int i = first(all, prefix);
+        while (i < all.length && startsWith(all[i].name, prefix)) {
+            String name = all[i].name;
+            int j = i + 1;
+            while (j < all.length && all[j].name.equals(name)) {
+                j++;
+            }
+            if (!visitor.visit(name, j - i)) {
+                return false;
+            }
+            i = j;
+        }
+        return true;
+    }
+
+    /**
+     * @param prefix the start of the names
+     * @param max the most symbols to return
+     * @return the symbols whose name starts with prefix
+     */
+    public List<Symbol> find(String prefix, int max) {
+        Symbol[] all = symbols;
+        List<Symbol> found = new ArrayList<>();
+        for (int i = first(all, prefix); i < all.length && found.size() < max && all[i].name.startsWith(prefix); i++) {
+            found.add(all[i]);
+        }
+        return found;
+    }
+
+    //Index of the first symbol not before prefix
+    private static int first(Symbol[] all, CharSequence prefix) {
+        int lo = 0;
+        int hi = all.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (CharSequence.compare(all[mid].name, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static boolean startsWith(String name, CharSequence prefix) {
+        if (name.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (name.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Symbol[] sort(Map<String, Entry> all) {
+        List<Symbol> list = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : all.entrySet()) {
+            File file = root.resolve(e.getKey()).toFile();
+            Entry entry = e.getValue();
+            for (int i = 0; i < entry.names.length; i++) {
+                list.add(new Symbol(entry.names[i], Kind.values()[entry.kinds[i]], file, entry.offsets[i]));
+            }
+        }
+        Symbol[] sorted = list.toArray(new Symbol[0]);
+        Arrays.sort(sorted, Comparator.comparing((Symbol s) -> s.name).thenComparing(s -> s.file).thenComparingInt(s -> s.offset));
+        return sorted;
+    }
+
+    /**
+     * Visits a directory: forks a task per subdirectory and per file that
+     * changed since it was last indexed
+     */
+    private class Walk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final Map<String, Entry> old;
+        private final Map<String, Entry> updated;
+
+        Walk(Path dir, Map<String, Entry> old, Map<String, Entry> updated) {
+            this.dir = dir;
+            this.old = old;
+            this.updated = updated;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    String name = child.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        tasks.add(new Walk(child, old, updated));
+                        continue;
+                    }
+                    Language language = Language.forFile(name);
+                    if (!attrs.isRegularFile() || language == null || attrs.size() > MAX_FILE_SIZE) {
+                        continue;
+                    }
+                    String key = root.relativize(child).toString();
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    Entry known = old.get(key);
+                    if (known != null && known.modified == modified && known.size == attrs.size()) {
+                        updated.put(key, known);
+                    } else {
+                        tasks.add(new RecursiveAction() {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            protected void compute() {
+                                try {
+                                    updated.put(key, parse(language, FileWatcher.readText(child), modified, attrs.size()));
+                                } catch (IOException ex) {
+                                    //Deleted or unreadable meanwhile, left out
+                                }
+                            }
+                        });
+                    }
+                }
+            } catch (IOException ex) {
+                //Unreadable directory, left out
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private static final Pattern JAVA_CLASS = Pattern.compile("\\b(?:class|interface|enum|record)\\s+([A-Za-z_$][\\w$]*)");
+    private static final Pattern JAVA_METHOD = Pattern.compile(
+            "([A-Za-z_$][\\w$]*)\\s*\\([^;{}()]*\\)\\s*(?:throws\\s+[\\w$.,\\s]+)?\\{");
+    private static final Pattern CPP_CLASS = Pattern.compile(
+            "\\b(?:class|struct|union|enum(?:\\s+class)?|namespace)\\s+([A-Za-z_]\\w*)\\s*(?:final\\s*)?[:{]");
+    private static final Pattern CPP_FUNCTION = Pattern.compile(
+            "([A-Za-z_~][\\w]*)\\s*\\([^;{}()]*\\)\\s*(?:(?:const|noexcept|override|final)\\s*)*\\{");
+    private static final Pattern PYTHON_CLASS = Pattern.compile("(?m)^[ \\t]*class[ \\t]+([A-Za-z_]\\w*)");
+    private static final Pattern PYTHON_FUNCTION = Pattern.compile("(?m)^[ \\t]*(?:async[ \\t]+)?def[ \\t]+([A-Za-z_]\\w*)");
+    //Words that look like a declaration before '(' ... ')' '{'
+    private static final List<String> NOT_NAMES = Arrays.asList("if", "for", "while", "switch", "catch", "synchronized",
+            "return", "new", "throw", "else", "do", "try", "super", "this", "sizeof", "defined");
+
+    private static Entry parse(Language language, String text, long modified, long size) {
+        //Blank comments and strings so only code is matched, offsets stay the same
+        char[] code = text.toCharArray();
+        Lexer lexer = language.getLexer();
+        Segment line = new Segment();
+        Lexer.Tokens tokens = new Lexer.Tokens();
+        int state = Lexer.INITIAL;
+        for (int start = 0; start <= code.length; ) {
+            int end = start;
+            while (end < code.length && code[end] != '\n') {
+                end++;
+            }
+            line.array = code;
+            line.offset = start;
+            line.count = end - start;
+            tokens.clear();
+            state = lexer.lex(line, state, tokens);
+            for (int k = 0; k < tokens.count(); k++) {
+                if (tokens.type(k) != Lexer.KEYWORD) {
+                    Arrays.fill(code, start + tokens.start(k), start + tokens.start(k) + tokens.length(k), ' ');
+                }
+            }
+            start = end + 1;
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        CharSequence chars = CharBuffer.wrap(code);
+        switch (language) {
+            case JAVA:
+                match(JAVA_CLASS, chars, lexer, Kind.CLASS, names, kinds, offsets);
+                match(JAVA_METHOD, chars, lexer, Kind.METHOD, names, kinds, offsets);
+                break;
+            case CPP:
+                match(CPP_CLASS, chars, lexer, Kind.CLASS, names, kinds, offsets);
+                match(CPP_FUNCTION, chars, lexer, Kind.FUNCTION, names, kinds, offsets);
+                break;
+            default:
+                match(PYTHON_CLASS, chars, lexer, Kind.CLASS, names, kinds, offsets);
+                match(PYTHON_FUNCTION, chars, lexer, Kind.FUNCTION, names, kinds, offsets);
+                break;
+        }
+        byte[] k = new byte[kinds.size()];
+        int[] o = new int[offsets.size()];
+        for (int i = 0; i < k.length; i++) {
+            k[i] = kinds.get(i).byteValue();
+            o[i] = offsets.get(i);
+        }
+        return new Entry(modified, size, names.toArray(new String[0]), k, o);
+    }
+
+    private static void match(Pattern pattern, CharSequence code, Lexer lexer, Kind kind, List<String> names,
+            List<Integer> kinds, List<Integer> offsets) {
+        Matcher m = pattern.matcher(code);
+        while (m.find()) {
+            String name = m.group(1);
+            if (NOT_NAMES.contains(name) || (kind != Kind.CLASS && !afterType(code, m.start(1), lexer))) {
+                continue;
+            }
+            names.add(name);
+            kinds.add(kind.ordinal());
+            offsets.add(m.start(1));
+        }
+    }
+
+    //A function name follows its return type, a modifier or a scope, a call does not
+    private static boolean afterType(CharSequence code, int at, Lexer lexer) {
+        int i = at - 1;
+        while (i >= 0 && Character.isWhitespace(code.charAt(i))) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        char c = code.charAt(i);
+        if (c == '>' || c == ']' || c == ':' || c == '*' || c == '&') {
+            return true;
+        }
+        if (!lexer.isWordChar(c)) {
+            return false;
+        }
+        int end = i + 1;
+        while (i >= 0 && lexer.isWordChar(code.charAt(i))) {
+            i--;
+        }
+        return !NOT_NAMES.contains(code.subSequence(i + 1, end).toString());
+    }
+
+    private Map<String, Entry> load() {
+        Map<String, Entry> loaded = new HashMap<>();
+        if (!store.exists()) {
+            return loaded;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(store.toPath()))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.toString())) {
+                return loaded;
+            }
+            int count = in.readInt();
+            for (int f = 0; f < count; f++) {
+                String key = in.readUTF();
+                long modified = in.readLong();
+                long size = in.readLong();
+                int n = in.readInt();
+                String[] names = new String[n];
+                byte[] kinds = new byte[n];
+                int[] offsets = new int[n];
+                for (int i = 0; i < n; i++) {
+                    names[i] = in.readUTF();
+                    kinds[i] = in.readByte();
+                    offsets[i] = in.readInt();
+                }
+                loaded.put(key, new Entry(modified, size, names, kinds, offsets));
+            }
+        } catch (IOException | RuntimeException ex) {
+            //Unreadable, the next update reads every file
+            return new HashMap<>();
+        }
+        return loaded;
+    }
+
+    private void save(Map<String, Entry> all) {
+        DIRECTORY.mkdirs();
+        File temp = new File(DIRECTORY, store.getName() + ".tmp");
+        List<String> keys = new ArrayList<>(all.keySet());
+        Collections.sort(keys);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp.toPath()))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(root.toString());
+                out.writeInt(keys.size());
+                for (String key : keys) {
+                    Entry entry = all.get(key);
+                    out.writeUTF(key);
+                    out.writeLong(entry.modified);
+                    out.writeLong(entry.size);
+                    out.writeInt(entry.names.length);
+                    for (int i = 0; i < entry.names.length; i++) {
+                        out.writeUTF(entry.names[i]);
+                        out.writeByte(entry.kinds[i]);
+                        out.writeInt(entry.offsets[i]);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package simplejavatexteditor;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <h1>Finds a regular expression in a text, within a budget</h1>
+ *
+ * <p>
+ * The matcher reads the text through a {@link CharSequence} that counts
+ * its reads. Every few thousand reads it checks the time spent and whether
+ * the caller gave up, and if so throws {@link Stopped}. A pattern that
+ * backtracks without end, like (.*a){20}b, reads the same chars over and
+ * over, so it is stopped like any other long search and cannot hang the
+ * editor. One that recurses too deep is stopped the same way.
+ * {@link #findAll} has no time budget, a Replace All over a long text may
+ * take its time, only its caller stops it.
+ * </p>
+ *
+ * <p>
+ * The text is usually a {@link PieceTableContent.Snapshot}, so the matcher
+ * runs over the pieces of the document without copying it. Flags: '^' and
+ * '$' match at line ends, and case is ignored in Unicode unless it must
+ * match. The replacement may refer to groups as $1 or ${name}.
+ * </p>
+ */
+public final class RegexSearch {
+
+    //The longest a search may run
+    static final long BUDGET_NANOS = 2_000_000_000L;
+    //Chars before the end that findLast looks at first, it doubles them until it finds a match
+    static final int LAST_WINDOW = 64 * 1024;
+    //Chars read between checks of the clock and of the stop condition
+    private static final int CHECK_EVERY = 4096;
+
+    /**
+     * Thrown when a search ran out of time or stack, or its caller gave up
+     */
+    public static final class Stopped extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+        //True if the caller gave up
+        public final boolean cancelled;
+
+        Stopped(String message, boolean cancelled) {
+            super(message, null, false, false);
+            this.cancelled = cancelled;
+        }
+    }
+
+    private final String regex;
+    private final boolean matchCase;
+    private final Pattern pattern;
+    private final boolean spansLines;
+
+    /**
+     * @param regex the expression
+     * @param matchCase false to ignore case
+     * @throws java.util.regex.PatternSyntaxException if the expression is
+     * not valid
+     */
+    public RegexSearch(String regex, boolean matchCase) {
+        this.regex = regex;
+        this.matchCase = matchCase;
+        this.pattern = Pattern.compile(regex, Pattern.MULTILINE
+                | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+        this.spansLines = spansLines(regex);
+    }
+
+    /**
+     * @return whether a match may hold a line end, true when that is not
+     * sure
+     */
+    public boolean spansLines() {
+        return spansLines;
+    }
+
+    //Escaped letters that never match '\n': classes, anchors, tab and the like
+    private static final String SINGLE_LINE_ESCAPES = "dwSbBAGzZhVtfaeEk";
+    //Stands for an escape before a '-' in a class
+    private static final int ESCAPED = -2;
+
+    //Looks at the expression only, any escape, class or flag that could match '\n' counts
+    private static boolean spansLines(String regex) {
+        if (regex.indexOf('\n') >= 0 || regex.indexOf('\r') >= 0) {
+            return true;
+        }
+        int classes = 0;
+        //In a class, the char that may start a range, ESCAPED, or -1
+        int before = -1;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char e = regex.charAt(++i);
+                if (e == 'Q') {
+                    //Quoted up to \E, all plain chars
+                    int end = regex.indexOf("\\E", i);
+                    i = end < 0 ? regex.length() : end + 1;
+                    before = -1;
+                } else if (e == '0' || Character.isLetter(e) && SINGLE_LINE_ESCAPES.indexOf(e) < 0) {
+                    //\0 is an octal char, like \012
+                    return true;
+                } else {
+                    before = ESCAPED;
+                }
+            } else if (classes > 0 && c == '-' && before != -1
+                    && i + 1 < regex.length() && regex.charAt(i + 1) != ']') {
+                //A range, like [\t-~], takes '\n' if its ends are around it, or may if one is an escape
+                char next = regex.charAt(++i);
+                if (before == ESCAPED || next == '\\' || before <= '\r' && next >= '\n') {
+                    return true;
+                }
+                before = -1;
+            } else if (c == '[') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    //A negated class takes '\n' unless it names it
+                    return true;
+                }
+                classes++;
+                before = -1;
+            } else if (c == ']' && classes > 0) {
+                classes--;
+                before = -1;
+            } else if (c == '(' && classes == 0 && regex.startsWith("(?", i)) {
+                //Inline flags, DOTALL makes '.' take '\n'
+                for (int k = i + 2; k < regex.length() && (Character.isLetter(regex.charAt(k)) || regex.charAt(k) == '-'); k++) {
+                    if (regex.charAt(k) == 's') {
+                        return true;
+                    }
+                }
+            } else {
+                before = c;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the expression
+     */
+    public String pattern() {
+        return regex;
+    }
+
+    /**
+     * @return whether case matters
+     */
+    public boolean matchCase() {
+        return matchCase;
+    }
+
+    /**
+     * Finds the first match starting at or after an offset. An empty match
+     * is skipped, finding one at every offset is of no use to a caret.
+     *
+     * @param text the text
+     * @param from where to start
+     * @param stop true to give up, or null
+     * @return {start, end} of the match, or null
+     * @throws Stopped if the budget or the stack ran out, or stop said so
+     */
+    public int[] find(CharSequence text, int from, BooleanSupplier stop) {
+        return find(text, from, text.length(), stop);
+    }
+
+    /**
+     * Finds the first match in a range. Lookarounds and anchors see the
+     * text around the range, but a match must end by its end, so one ending
+     * right there may be cut short.
+     *
+     * @param text the text
+     * @param from where to start
+     * @param to where matches must end
+     * @param stop true to give up, or null
+     * @return {start, end} of the match, or null
+     * @throws Stopped if the budget or the stack ran out, or stop said so
+     */
+    public int[] find(CharSequence text, int from, int to, BooleanSupplier stop) {
+        Matcher m = pattern.matcher(new Budget(text, stop));
+        m.region(Math.max(0, from), Math.min(to, text.length()))
+                .useTransparentBounds(true).useAnchoringBounds(false);
+        try {
+            while (m.find()) {
+                if (m.end() > m.start()) {
+                    return new int[]{m.start(), m.end()};
+                }
+            }
+        } catch (StackOverflowError ex) {
+            throw tooDeep();
+        }
+        return null;
+    }
+
+    /**
+     * Finds the last match ending at or before an offset. Matches are
+     * found forward, from the start of a window of lines before end that
+     * doubles until it holds one. Where a match may hold a line end, the
+     * window is the whole text before end.
+     *
+     * @param text the text
+     * @param end where matches must end
+     * @param stop true to give up, or null
+     * @return {start, end} of the match, or null
+     * @throws Stopped if the budget or the stack ran out, or stop said so
+     */
+    public int[] findLast(CharSequence text, int end, BooleanSupplier stop) {
+        Budget budget = new Budget(text, stop);
+        end = Math.min(end, text.length());
+        //A match cannot go on past the end of its line, so from a line start
+        //on the matches are the same as those found from the start of the text
+        int from = spansLines ? 0 : lineStart(text, end - LAST_WINDOW);
+        while (true) {
+            Matcher m = pattern.matcher(budget);
+            m.region(from, end).useTransparentBounds(true).useAnchoringBounds(false);
+            int[] last = null;
+            try {
+                while (m.find()) {
+                    if (m.end() > m.start()) {
+                        last = new int[]{m.start(), m.end()};
+                    }
+                }
+            } catch (StackOverflowError ex) {
+                throw tooDeep();
+            }
+            if (last != null || from == 0) {
+                return last;
+            }
+            from = lineStart(text, from - (end - from));
+        }
+    }
+
+    //The start of the line holding an offset
+    private static int lineStart(CharSequence text, int offset) {
+        int i = Math.max(0, offset);
+        while (i > 0 && text.charAt(i - 1) != '\n') {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Tells what a match is replaced by, if a range is the match a search
+     * from its start would find.
+     *
+     * @param text the text
+     * @param start the start of a range
+     * @param end the end of the range
+     * @param replacement the replacement, with $n and ${name} for groups
+     * @param stop true to give up, or null
+     * @return the replacement with its groups filled in, or null if the
+     * range is not a match
+     * @throws Stopped if the budget or the stack ran out, or stop said so
+     * @throws IllegalArgumentException if the replacement names a group the
+     * expression does not have, or IndexOutOfBoundsException if it numbers one
+     */
+    public String replacement(CharSequence text, int start, int end, String replacement, BooleanSupplier stop) {
+        Matcher m = pattern.matcher(new Budget(text, stop));
+        //Lookarounds and anchors see the text around the range, as they do for find
+        m.region(start, text.length()).useTransparentBounds(true).useAnchoringBounds(false);
+        try {
+            if (!m.lookingAt() || m.end() != end || end == start) {
+                return null;
+            }
+            if (replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0) {
+                return replacement;
+            }
+            StringBuilder sb = new StringBuilder();
+            expand(m, replacement, sb);
+            return sb.toString();
+        } catch (StackOverflowError ex) {
+            throw tooDeep();
+        }
+    }
+
+    /**
+     * Fills in the groups of a match, with the rules of
+     * {@link Matcher#appendReplacement}, which would also copy all the text
+     * since the last match, here since the start of the text.
+     */
+    private static void expand(Matcher m, String replacement, StringBuilder out) {
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) {
+                    throw new IllegalArgumentException("character to be escaped is missing");
+                }
+                out.append(replacement.charAt(i++));
+            } else if (c != '$') {
+                out.append(c);
+            } else if (i == replacement.length()) {
+                throw new IllegalArgumentException("Illegal group reference: group index is missing");
+            } else if (replacement.charAt(i) == '{') {
+                int close = replacement.indexOf('}', ++i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+                }
+                String group = m.group(replacement.substring(i, close));
+                if (group != null) {
+                    out.append(group);
+                }
+                i = close + 1;
+            } else {
+                //As many digits as still name a group, at least one
+                int group = replacement.charAt(i++) - '0';
+                if (group < 0 || group > 9) {
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                while (i < replacement.length()) {
+                    int digit = replacement.charAt(i) - '0';
+                    if (digit < 0 || digit > 9 || group * 10 + digit > m.groupCount()) {
+                        break;
+                    }
+                    group = group * 10 + digit;
+                    i++;
+                }
+                if (group > m.groupCount()) {
+                    throw new IndexOutOfBoundsException("No group " + group);
+                }
+                String text = m.group(group);
+                if (text != null) {
+                    out.append(text);
+                }
+            }
+        }
+    }
+
+    //The matcher recurses for repeated groups, a long enough match overflows the stack
+    private static Stopped tooDeep() {
+        return new Stopped("The expression is too complex for this text", false);
+    }
+
+    /**
+     * The matches of a Replace All, with their replacements
+     */
+    public static final class Matches {
+
+        public final int[] starts;
+        public final int[] ends;
+        public final String[] replacements;
+
+        Matches(int[] starts, int[] ends, String[] replacements) {
+            this.starts = starts;
+            this.ends = ends;
+            this.replacements = replacements;
+        }
+    }
+
+    /**
+     * Finds every non-empty match, in order, and what each one is replaced
+     * by, with its groups filled in. There is no time budget, the search
+     * runs on until it is done or stop says so.
+     *
+     * @param text the text
+     * @param replacement the replacement, with $n and ${name} for groups
+     * @param stop true to give up, or null
+     * @return the matches
+     * @throws Stopped if the stack ran out, or stop said so
+     * @throws IllegalArgumentException if the replacement names a group the
+     * expression does not have, or IndexOutOfBoundsException if it numbers one
+     */
+    public Matches findAll(CharSequence text, String replacement, BooleanSupplier stop) {
+        Matcher m = pattern.matcher(new Budget(text, stop, Long.MAX_VALUE));
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        String[] replacements = new String[16];
+        int n = 0;
+        StringBuilder sb = new StringBuilder();
+        boolean literal = replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0;
+        try {
+            while (m.find()) {
+                if (m.end() == m.start()) {
+                    continue;
+                }
+                if (n == starts.length) {
+                    starts = Arrays.copyOf(starts, n * 2);
+                    ends = Arrays.copyOf(ends, n * 2);
+                    replacements = Arrays.copyOf(replacements, n * 2);
+                }
+                starts[n] = m.start();
+                ends[n] = m.end();
+                if (literal) {
+                    replacements[n] = replacement;
+                } else {
+                    sb.setLength(0);
+                    expand(m, replacement, sb);
+                    replacements[n] = sb.toString();
+                }
+                n++;
+            }
+        } catch (StackOverflowError ex) {
+            throw tooDeep();
+        }
+        return new Matches(Arrays.copyOf(starts, n), Arrays.copyOf(ends, n), Arrays.copyOf(replacements, n));
+    }
+
+    /**
+     * The text as the matcher sees it, counting reads
+     */
+    private static final class Budget implements CharSequence {
+
+        private final CharSequence text;
+        private final BooleanSupplier stop;
+        private final long start = System.nanoTime();
+        private final long budget;
+        private int reads;
+
+        Budget(CharSequence text, BooleanSupplier stop) {
+            this(text, stop, BUDGET_NANOS);
+        }
+
+        Budget(CharSequence text, BooleanSupplier stop, long budget) {
+            this.text = text;
+            this.stop = stop;
+            this.budget = budget;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_EVERY) {
+                reads = 0;
+                if (System.nanoTime() - start > budget) {
+                    throw new Stopped("The search took too long", false);
+                }
+                if (stop != null && stop.getAsBoolean()) {
+                    throw new Stopped("The search was cancelled", true);
+                }
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
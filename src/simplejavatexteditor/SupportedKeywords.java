@@ -8,11 +8,11 @@ import java.util.ArrayList;
  *
  * <p>Makes multiple language support possible and makes adding new language
  * support convenient. To add more keywords, add a string array and getters
- * to this class. Then, update the switch statement in UI.java.</p>
+ * to this class. Then, add a constant for the language to Language.java.</p>
  */
 public class SupportedKeywords {
 
-    private String[] supportedLanguages = {".cpp",".java"};
+    private String[] supportedLanguages = {".cpp",".java",".py"};
 
     private String[] java = {"abstract", "assert", "boolean",
             "break", "byte", "case", "catch", "char", "class", "const",
@@ -33,6 +33,11 @@ public class SupportedKeywords {
                 "template", "typename", "class", "friend", "private", "this", "using", "const_cast",
                 "inline", "public", "throw", "virtual", "delete", "mutable", "protected", "true", "wchar_t" };
 
+    private String[] python = { "False", "None", "True", "and", "as", "assert", "async", "await",
+                "break", "class", "continue", "def", "del", "elif", "else", "except", "finally",
+                "for", "from", "global", "if", "import", "in", "is", "lambda", "nonlocal", "not",
+                "or", "pass", "raise", "return", "try", "while", "with", "yield" };
+
     public String[] getSupportedLanguages() {
         return supportedLanguages;
     }
@@ -45,6 +50,9 @@ public class SupportedKeywords {
     public String[] getCppKeywords() {
         return cpp;
     }
+    public String[] getPythonKeywords() {
+        return python;
+    }
     public ArrayList<String> getBracketCompletions() {
         ArrayList<String> al = new ArrayList<>();
         for(String completion : bCompletions) {
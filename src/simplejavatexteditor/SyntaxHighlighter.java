@@ -0,0 +1,600 @@
+package simplejavatexteditor;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Keeps the syntax highlighting of a text component up to date</h1>
+ *
+ * <p>
+ * The lexer state every line ends in is cached. An edit marks the lines it
+ * touched as dirty; the lines after them are lexed again only while their
+ * start state keeps changing (e.g. after opening a block comment), so the
+ * cost of a keystroke does not depend on the size of the document.
+ * </p>
+ *
+ * <p>
+ * Only the visible lines, plus {@link #MARGIN_LINES} above and below, are
+ * highlighted. Their tokens are kept in a per-tab cache of at most
+ * {@link #MAX_CACHED_LINES} lines, the least recently shown are dropped
+ * first, so scrolling back to a recent spot needs no lexing. Lines further
+ * away are lexed only for their end state.
+ * </p>
+ *
+ * <p>
+ * Lexing runs on a background thread against a {@link PieceTableContent.Snapshot}
+ * taken with the edit, tagged with the document version. Results come back
+ * to the EDT in batches and are dropped if the document changed meanwhile;
+ * a newer edit also cancels the running job. All the state of this class is
+ * only touched on the EDT.
+ * </p>
+ */
+public class SyntaxHighlighter implements DocumentListener, PropertyChangeListener {
+
+    private static final int UNKNOWN = -1;
+    static final int BATCH_LINES = 256;
+    static final long BATCH_NANOS = 5_000_000;
+    static final int MARGIN_LINES = 50;
+    static final int MAX_CACHED_LINES = 20_000;
+
+    //One thread for all tabs, a job gives way as soon as a newer one is queued
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Syntax Highlighter");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    private final JTextComponent textComponent;
+    private Lexer lexer;
+    private final LayeredHighlighter.LayerPainter painter;
+    private final TokenHighlighter highlighter = new TokenHighlighter();
+    private Document document;
+
+    //Scrolling moves the text component inside its viewport
+    private final ComponentListener scrollListener = new ComponentAdapter() {
+        @Override
+        public void componentMoved(ComponentEvent e) {
+            updateWindow();
+        }
+
+        @Override
+        public void componentResized(ComponentEvent e) {
+            updateWindow();
+        }
+    };
+
+    //Per line: the state it ends in, its cached tokens, when they were last shown
+    private int lineCount;
+    private int[] endStates = new int[0];
+    private int[][] tokens = new int[0][];
+    private int[] used = new int[0];
+    private int cached;
+    private int tick;
+
+    //The highlighted lines
+    private int windowFrom;
+    private int windowTo = -1;
+
+    //Lines from dirtyFrom on need lexing, at least up to mustReach
+    private int dirtyFrom = -1;
+    private int mustReach = -1;
+    private long version;
+    private Job job;
+    //Set while a batch of edits runs, lexing waits until it is over
+    private boolean deferred;
+
+    //Reused by tokenTypeAt, which completion calls on every typed char
+    private final Runnable probe = this::probe;
+    private final Segment probeText = new Segment();
+    private final Lexer.Tokens probeTokens = new Lexer.Tokens();
+    private char[] probeChars = new char[256];
+    private int probeOffset;
+    private int probeType;
+
+    /**
+     * @param textComponent the component to highlight
+     * @param lexer the lexer for its language, shared between threads
+     * @param painter paints the keywords
+     */
+    public SyntaxHighlighter(JTextComponent textComponent, Lexer lexer, LayeredHighlighter.LayerPainter painter) {
+        this.textComponent = textComponent;
+        this.lexer = lexer;
+        this.painter = painter;
+    }
+
+    /**
+     * Sets how the tokens of a type are painted, see {@link Lexer}.
+     *
+     * @param type the token type
+     * @param tokenPainter the painter
+     */
+    public void setPainter(int type, LayeredHighlighter.LayerPainter tokenPainter) {
+        highlighter.setPainter(type, tokenPainter);
+    }
+
+    /**
+     * Switches to another language, e.g. after a save under a new name, and
+     * lexes everything again.
+     *
+     * @param lexer the lexer of the new language
+     */
+    public void setLexer(Lexer lexer) {
+        if (lexer == this.lexer) {
+            return;
+        }
+        this.lexer = lexer;
+        if (document != null) {
+            setDocument(document);
+        }
+    }
+
+    /**
+     * @return the lexer of the tab
+     */
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    /**
+     * Tells what the char before an offset is part of, as of the current
+     * text, e.g. so completion can stay out of comments and strings. Only
+     * the line of the offset is lexed, from the state the previous line is
+     * known to end in.
+     *
+     * @param offset an offset in the document
+     * @return the token type of the char before it, or -1 if none
+     */
+    public int tokenTypeAt(int offset) {
+        probeOffset = offset;
+        probeType = -1;
+        document.render(probe);
+        return probeType;
+    }
+
+    //The body of tokenTypeAt, run under the document's read lock
+    private void probe() {
+        Element root = document.getDefaultRootElement();
+        int line = root.getElementIndex(probeOffset);
+        int state = line == 0 ? Lexer.INITIAL : endStates[line - 1];
+        if (state == UNKNOWN || line >= lineCount) {
+            return;
+        }
+        int start = root.getElement(line).getStartOffset();
+        int length = probeOffset - start;
+        //The line may span pieces of the content, copied into one reused array
+        if (probeChars.length < length) {
+            probeChars = new char[Math.max(length, probeChars.length * 2)];
+        }
+        probeText.setPartialReturn(true);
+        try {
+            for (int n = 0; n < length; n += probeText.count) {
+                document.getText(start + n, length - n, probeText);
+                System.arraycopy(probeText.array, probeText.offset, probeChars, n, probeText.count);
+            }
+        } catch (BadLocationException ex) {
+            return;
+        }
+        probeText.array = probeChars;
+        probeText.offset = 0;
+        probeText.count = length;
+        probeTokens.clear();
+        lexer.lex(probeText, state, probeTokens);
+        //A token running up to the offset, e.g. a comment or an open string, contains it
+        for (int k = 0; k < probeTokens.count(); k++) {
+            int from = probeTokens.start(k);
+            if (from < length && from + probeTokens.length(k) >= length) {
+                probeType = probeTokens.type(k);
+            }
+        }
+    }
+
+    /**
+     * Installs a {@link TokenHighlighter} on the component, highlights the
+     * current text and starts following edits and scrolling.
+     */
+    public void install() {
+        highlighter.setPainter(Lexer.KEYWORD, painter);
+        textComponent.setHighlighter(highlighter);
+        textComponent.addPropertyChangeListener("document", this);
+        textComponent.addComponentListener(scrollListener);
+        setDocument(textComponent.getDocument());
+    }
+
+    /**
+     * Removes every token highlight and stops following edits.
+     */
+    public void uninstall() {
+        textComponent.removePropertyChangeListener("document", this);
+        textComponent.removeComponentListener(scrollListener);
+        setDocument(null);
+    }
+
+    private void setDocument(Document doc) {
+        if (document != null) {
+            document.removeDocumentListener(this);
+            cancel();
+            replaceLines(0, lineCount, 0);
+            dirtyFrom = -1;
+            mustReach = -1;
+            windowFrom = 0;
+            windowTo = -1;
+        }
+        document = doc;
+        if (doc != null) {
+            doc.addDocumentListener(this);
+            doc.render(() -> {
+                int lines = doc.getDefaultRootElement().getElementCount();
+                replaceLines(0, 0, lines);
+                version++;
+                dirtyFrom = 0;
+                mustReach = lines - 1;
+            });
+            //Starts the first job, knowing which lines are shown
+            updateWindow();
+        }
+    }
+
+    //Makes room for 'added' lines in place of 'removed' ones, the new lines are not lexed yet
+    private void replaceLines(int index, int removed, int added) {
+        for (int i = index; i < index + removed; i++) {
+            if (tokens[i] != null) {
+                cached--;
+            }
+        }
+        highlighter.replaceLines(index, removed, added);
+        int count = lineCount - removed + added;
+        if (count > endStates.length) {
+            int capacity = Math.max(count, endStates.length * 3 / 2 + 16);
+            endStates = Arrays.copyOf(endStates, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            used = Arrays.copyOf(used, capacity);
+        }
+        int tail = lineCount - index - removed;
+        System.arraycopy(endStates, index + removed, endStates, index + added, tail);
+        System.arraycopy(tokens, index + removed, tokens, index + added, tail);
+        System.arraycopy(used, index + removed, used, index + added, tail);
+        Arrays.fill(endStates, index, index + added, UNKNOWN);
+        Arrays.fill(tokens, index, index + added, null);
+        if (count < lineCount) {
+            Arrays.fill(tokens, count, lineCount, null);
+        }
+        lineCount = count;
+
+        //Keep the pending range and the window on the same lines, the window no bigger than it was
+        int windowSize = windowTo - windowFrom;
+        int shift = added - removed;
+        int lastAdded = index + Math.max(added, 1) - 1;
+        if (dirtyFrom >= index + removed) {
+            dirtyFrom += shift;
+        } else if (dirtyFrom > index) {
+            dirtyFrom = index;
+        }
+        if (mustReach >= index + removed) {
+            mustReach += shift;
+        } else if (mustReach >= index) {
+            mustReach = lastAdded;
+        }
+        if (windowFrom >= index + removed) {
+            windowFrom += shift;
+        } else if (windowFrom > index) {
+            windowFrom = index;
+        }
+        if (windowTo >= index + removed) {
+            windowTo += shift;
+        } else if (windowTo >= index) {
+            windowTo = lastAdded;
+        }
+        windowTo = Math.min(Math.min(windowTo, windowFrom + windowSize), lineCount - 1);
+    }
+
+    private boolean inWindow(int line) {
+        return line >= windowFrom && line <= windowTo;
+    }
+
+    //Follows the viewport: drops the highlights that scrolled away, shows cached ones that came in
+    private void updateWindow() {
+        if (document == null) {
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        Rectangle visible = textComponent.getVisibleRect();
+        int first = 0;
+        int last = 0;
+        if (!visible.isEmpty()) {
+            first = root.getElementIndex(textComponent.viewToModel2D(new Point(0, visible.y)));
+            last = root.getElementIndex(textComponent.viewToModel2D(new Point(0, visible.y + visible.height)));
+        }
+        int from = Math.max(0, first - MARGIN_LINES);
+        int to = Math.min(lineCount - 1, last + MARGIN_LINES);
+        if (from == windowFrom && to == windowTo) {
+            return;
+        }
+        if (windowTo >= windowFrom) {
+            highlighter.clearTokens(windowFrom, Math.min(from, windowTo + 1) - windowFrom);
+            int stay = Math.max(windowFrom, to + 1);
+            highlighter.clearTokens(stay, windowTo + 1 - stay);
+        }
+        windowFrom = from;
+        windowTo = to;
+        for (int line = from; line <= to; line++) {
+            used[line] = ++tick;
+        }
+        highlighter.setTokens(from, Arrays.copyOfRange(tokens, from, to + 1), to - from + 1);
+        scheduleMissing();
+    }
+
+    //Index of the first window line after 'line' without tokens, or -1
+    private int missingAfter(int line) {
+        for (int i = Math.max(line + 1, windowFrom); i <= windowTo; i++) {
+            if (tokens[i] == null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //Starts a job for the window lines that have no tokens yet, unless one is running
+    private void scheduleMissing() {
+        if (job != null) {
+            return;
+        }
+        if (dirtyFrom >= 0) {
+            startJob(dirtyFrom);
+            return;
+        }
+        int missing = missingAfter(windowFrom - 1);
+        if (missing >= 0) {
+            startJob(missing);
+        }
+    }
+
+    //Called from a document listener, with the document locked
+    private void damage(int first, int last) {
+        version++;
+        if (dirtyFrom < 0) {
+            dirtyFrom = first;
+            mustReach = last;
+        } else {
+            mustReach = Math.max(mustReach, last);
+            dirtyFrom = Math.min(dirtyFrom, first);
+        }
+        cancel();
+        if (PieceTableDocument.isBatching(document)) {
+            deferUntilBatchEnds();
+            return;
+        }
+        startJob(dirtyFrom);
+    }
+
+    //One job and one window update for all the edits of a batch, once it is over
+    private void deferUntilBatchEnds() {
+        if (!deferred) {
+            deferred = true;
+            SwingUtilities.invokeLater(() -> {
+                deferred = false;
+                if (document != null) {
+                    updateWindow();
+                    scheduleMissing();
+                }
+            });
+        }
+    }
+
+    private void startJob(int line) {
+        //The snapshot must match the line structure, hence the read lock
+        document.render(() -> {
+            int offset = document.getDefaultRootElement().getElement(line).getStartOffset();
+            int state = line == 0 ? Lexer.INITIAL : endStates[line - 1];
+            job = new Job(PieceTableContent.snapshot(document), lexer, version, line, offset, state, windowFrom, windowTo);
+        });
+        WORKER.execute(job);
+    }
+
+    private void cancel() {
+        if (job != null) {
+            job.cancelled = true;
+            job = null;
+        }
+    }
+
+    //Drops the tokens of the least recently shown lines outside the window
+    private void evict() {
+        if (cached <= MAX_CACHED_LINES) {
+            return;
+        }
+        int[] stamps = new int[cached];
+        int n = 0;
+        for (int line = 0; line < lineCount; line++) {
+            if (tokens[line] != null && !inWindow(line)) {
+                stamps[n++] = used[line];
+            }
+        }
+        Arrays.sort(stamps, 0, n);
+        int cutoff = stamps[Math.max(0, n - MAX_CACHED_LINES / 2)];
+        for (int line = 0; line < lineCount; line++) {
+            if (tokens[line] != null && !inWindow(line) && used[line] < cutoff) {
+                tokens[line] = null;
+                cached--;
+            }
+        }
+    }
+
+    //Runs on the EDT, applies lexed lines if they still match the document
+    private void apply(Job source, int first, int[][] lineTokens, int[] lineStates, int count, boolean finished) {
+        if (source != job || source.version != version) {
+            return;
+        }
+        int applied = 0;
+        while (applied < count) {
+            int line = first + applied;
+            if (tokens[line] != null) {
+                cached--;
+            }
+            //Lines outside the job's window come back without tokens
+            tokens[line] = lineTokens[applied];
+            if (tokens[line] != null) {
+                cached++;
+                used[line] = ++tick;
+            }
+            applied++;
+
+            int oldState = endStates[line];
+            endStates[line] = lineStates[line - first];
+            if (dirtyFrom >= 0) {
+                if ((line >= mustReach && oldState == endStates[line]) || line == lineCount - 1) {
+                    //Everything after this line is still valid
+                    dirtyFrom = -1;
+                    mustReach = -1;
+                } else {
+                    dirtyFrom = line + 1;
+                }
+            }
+            if (dirtyFrom < 0) {
+                //Done, unless the job still passes lines that were scrolled into view meanwhile
+                int missing = missingAfter(line);
+                if (missing < 0 || missing > source.windowTo) {
+                    finished = true;
+                    break;
+                }
+            }
+        }
+
+        //One update for the lines of the batch that are in view
+        int from = Math.max(first, windowFrom);
+        int to = Math.min(first + applied - 1, windowTo);
+        if (from <= to) {
+            highlighter.setTokens(from, Arrays.copyOfRange(tokens, from, to + 1), to - from + 1);
+        }
+        if (finished) {
+            cancel();
+            evict();
+            scheduleMissing();
+        }
+    }
+
+    /**
+     * Lexes lines of a snapshot from a given line on, until cancelled or
+     * told by the EDT that the rest is unchanged
+     */
+    private class Job implements Runnable {
+
+        final PieceTableContent.Snapshot text;
+        final Lexer lexer;
+        final long version;
+        final int firstLine;
+        final int firstOffset;
+        final int startState;
+        final int windowFrom;
+        final int windowTo;
+        volatile boolean cancelled;
+
+        Job(PieceTableContent.Snapshot text, Lexer lexer, long version, int firstLine, int firstOffset,
+                int startState, int windowFrom, int windowTo) {
+            this.text = text;
+            this.lexer = lexer;
+            this.version = version;
+            this.firstLine = firstLine;
+            this.firstOffset = firstOffset;
+            this.startState = startState;
+            this.windowFrom = windowFrom;
+            this.windowTo = windowTo;
+        }
+
+        @Override
+        public void run() {
+            Segment segment = new Segment();
+            Lexer.Tokens lineTokens = new Lexer.Tokens();
+            int length = text.length();
+            int line = firstLine;
+            int offset = firstOffset;
+            int state = startState;
+            try {
+                while (offset <= length && !cancelled) {
+                    int first = line;
+                    int[][] batchTokens = new int[BATCH_LINES][];
+                    int[] batchStates = new int[BATCH_LINES];
+                    int count = 0;
+                    long start = System.nanoTime();
+                    while (count < BATCH_LINES && offset <= length && !cancelled) {
+                        int end = offset;
+                        while (end < length && text.charAt(end) != '\n') {
+                            end++;
+                        }
+                        text.getChars(offset, end - offset, segment);
+                        lineTokens.clear();
+                        state = lexer.lex(segment, state, lineTokens);
+                        if (line >= windowFrom && line <= windowTo) {
+                            batchTokens[count] = lineTokens.toArray();
+                        }
+                        batchStates[count] = state;
+                        count++;
+                        line++;
+                        offset = end + 1;
+                        if (System.nanoTime() - start > BATCH_NANOS) {
+                            break;
+                        }
+                    }
+                    int n = count;
+                    boolean done = offset > length;
+                    SwingUtilities.invokeLater(() -> apply(this, first, batchTokens, batchStates, n, done));
+                }
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void update(DocumentEvent e) {
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change != null) {
+            int added = change.getChildrenAdded().length;
+            replaceLines(change.getIndex(), change.getChildrenRemoved().length, added);
+            damage(change.getIndex(), change.getIndex() + Math.max(added, 1) - 1);
+            //The views are updated after this listener, the lines in view are known later
+            if (!deferred) {
+                SwingUtilities.invokeLater(this::updateWindow);
+            }
+        } else {
+            int line = root.getElementIndex(e.getOffset());
+            damage(line, line);
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        setDocument(textComponent.getDocument());
+    }
+}
@@ -0,0 +1,320 @@
+package simplejavatexteditor;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * <h1>Finds a literal string in a document, forward or backward</h1>
+ *
+ * <p>
+ * Boyer-Moore-Horspool: after a mismatch the pattern moves by as much as
+ * the text char under one of its ends allows, so most chars of the text
+ * are never looked at. The shift table is indexed by the low byte of a
+ * char and keeps the smallest shift of the chars sharing it, which is
+ * always safe.
+ * </p>
+ *
+ * <p>
+ * The document is read in chunks through {@link Segment}s with partial
+ * return, so its own array is searched where it has the chunk in one
+ * piece and the text is never copied as a whole. Chunks overlap by the
+ * pattern length less one, so no match across their border is missed.
+ * Ignoring case, chars are compared after folding them to upper and then
+ * lower case.
+ * </p>
+ *
+ * <p>
+ * The methods over a char array keep no state, so one search can run over
+ * many arrays on several threads at once, see {@link FileSearch}.
+ * </p>
+ */
+public final class TextSearch {
+
+    //Chars read from the document at a time
+    static final int CHUNK = 64 * 1024;
+
+    private final String text;
+    private final char[] pattern;
+    private final boolean matchCase;
+    //By low byte: how far to move forward after the char under the last pattern char
+    private final int[] forward = new int[256];
+    //By low byte: how far to move backward after the char under the first pattern char
+    private final int[] backward = new int[256];
+
+    private final Segment segment = new Segment();
+    private char[] window = new char[0];
+
+    //Where the chars come from: a document, or a snapshot of one
+    private interface Chars {
+
+        void getText(int where, int len, Segment txt) throws BadLocationException;
+    }
+
+    /**
+     * @param pattern the text to find, not empty
+     * @param matchCase false to ignore case
+     */
+    public TextSearch(String pattern, boolean matchCase) {
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("Empty pattern");
+        }
+        this.text = pattern;
+        this.matchCase = matchCase;
+        this.pattern = new char[pattern.length()];
+        for (int i = 0; i < this.pattern.length; i++) {
+            this.pattern[i] = fold(pattern.charAt(i));
+        }
+        int m = this.pattern.length;
+        Arrays.fill(forward, m);
+        Arrays.fill(backward, m);
+        for (int i = 0; i < m - 1; i++) {
+            forward[this.pattern[i] & 0xFF] = m - 1 - i;
+        }
+        for (int i = m - 1; i > 0; i--) {
+            backward[this.pattern[i] & 0xFF] = i;
+        }
+        segment.setPartialReturn(true);
+    }
+
+    /**
+     * @return the text searched for
+     */
+    public String pattern() {
+        return text;
+    }
+
+    /**
+     * @return the length of a match
+     */
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * @return whether case matters
+     */
+    public boolean matchCase() {
+        return matchCase;
+    }
+
+    private char fold(char c) {
+        if (matchCase) {
+            return c;
+        }
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Finds the first match starting at or after an offset.
+     *
+     * @param doc the document
+     * @param from where to start
+     * @return the start of the match, or -1
+     */
+    public int indexOf(Document doc, int from) {
+        int[] found = {-1};
+        doc.render(() -> found[0] = indexOf(doc::getText, from, doc.getLength(), null));
+        return found[0];
+    }
+
+    /**
+     * Finds the first match in a range of a snapshot, on any thread. The
+     * stop condition is checked between chunks.
+     *
+     * @param text the text
+     * @param from where to start
+     * @param to where matches must end
+     * @param stop true to give up, or null
+     * @return the start of the match, or -1 if none or stopped
+     */
+    public int indexOf(PieceTableContent.Snapshot text, int from, int to, BooleanSupplier stop) {
+        return indexOf(text::getChars, from, Math.min(to, text.length()), stop);
+    }
+
+    /**
+     * Finds the last match ending at or before an offset.
+     *
+     * @param doc the document
+     * @param end where matches must end
+     * @return the start of the match, or -1
+     */
+    public int lastIndexOf(Document doc, int end) {
+        int[] found = {-1};
+        doc.render(() -> found[0] = lastIndexOf(doc::getText, 0, Math.min(end, doc.getLength())));
+        return found[0];
+    }
+
+    /**
+     * @param doc the document
+     * @param at an offset
+     * @return whether a match starts there
+     */
+    public boolean matchesAt(Document doc, int at) {
+        int[] found = {-1};
+        doc.render(() -> found[0] = indexOf(doc::getText, at, Math.min(at + pattern.length, doc.getLength()), null));
+        return found[0] == at;
+    }
+
+    /**
+     * Finds every match, in one pass over the document. Matches do not
+     * overlap, each search goes on after the end of the last match.
+     *
+     * @param doc the document
+     * @return the starts of the matches, in order
+     */
+    public int[] findAll(Document doc) {
+        int[][] found = {new int[16]};
+        int[] count = {0};
+        doc.render(() -> {
+            int m = pattern.length;
+            int to = doc.getLength();
+            int start = 0;
+            while (to - start >= m) {
+                int len = Math.min(CHUNK + m - 1, to - start);
+                Segment chunk = read(doc::getText, start, len);
+                if (chunk == null) {
+                    return;
+                }
+                int next = start + len - m + 1;
+                int end = chunk.offset + len;
+                for (int i = indexOf(chunk.array, chunk.offset, end); i >= 0; i = indexOf(chunk.array, i + m, end)) {
+                    if (count[0] == found[0].length) {
+                        found[0] = Arrays.copyOf(found[0], count[0] * 2);
+                    }
+                    found[0][count[0]++] = start + i - chunk.offset;
+                    next = Math.max(next, start + i - chunk.offset + m);
+                }
+                start = next;
+            }
+        });
+        return Arrays.copyOf(found[0], count[0]);
+    }
+
+    //First match in [from, to), read chunk by chunk
+    private int indexOf(Chars doc, int from, int to, BooleanSupplier stop) {
+        int m = pattern.length;
+        int start = Math.max(0, from);
+        while (to - start >= m) {
+            if (stop != null && stop.getAsBoolean()) {
+                return -1;
+            }
+            int len = Math.min(CHUNK + m - 1, to - start);
+            Segment chunk = read(doc, start, len);
+            if (chunk == null) {
+                return -1;
+            }
+            int i = indexOf(chunk.array, chunk.offset, chunk.offset + len);
+            if (i >= 0) {
+                return start + i - chunk.offset;
+            }
+            start += len - m + 1;
+        }
+        return -1;
+    }
+
+    //Last match in [from, to), read chunk by chunk from the end
+    private int lastIndexOf(Chars doc, int from, int to) {
+        int m = pattern.length;
+        int end = to;
+        while (end - from >= m) {
+            int len = Math.min(CHUNK + m - 1, end - from);
+            Segment chunk = read(doc, end - len, len);
+            if (chunk == null) {
+                return -1;
+            }
+            int i = lastIndexOf(chunk.array, chunk.offset, chunk.offset + len);
+            if (i >= 0) {
+                return end - len + i - chunk.offset;
+            }
+            end -= len - m + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first match in a range of an array.
+     *
+     * @param a the chars
+     * @param from the start of the range
+     * @param to the end of the range, exclusive
+     * @return the index of the match in a, or -1
+     */
+    public int indexOf(char[] a, int from, int to) {
+        int m = pattern.length;
+        char last = pattern[m - 1];
+        for (int i = from; i <= to - m; ) {
+            char c = fold(a[i + m - 1]);
+            if (c == last && matches(a, i, m - 1)) {
+                return i;
+            }
+            i += forward[c & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last match in a range of an array.
+     *
+     * @param a the chars
+     * @param from the start of the range
+     * @param to the end of the range, exclusive
+     * @return the index of the match in a, or -1
+     */
+    public int lastIndexOf(char[] a, int from, int to) {
+        int m = pattern.length;
+        char first = pattern[0];
+        for (int i = to - m; i >= from; ) {
+            char c = fold(a[i]);
+            if (c == first && matches(a, i, m)) {
+                return i;
+            }
+            i -= backward[c & 0xFF];
+        }
+        return -1;
+    }
+
+    //Whether the first n pattern chars are at i
+    private boolean matches(char[] a, int i, int n) {
+        for (int k = 0; k < n; k++) {
+            if (fold(a[i + k]) != pattern[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //The chars [start, start + len), in the document's array if it has them in one piece
+    private Segment read(Chars doc, int start, int len) {
+        try {
+            doc.getText(start, len, segment);
+            if (segment.count == len) {
+                return segment;
+            }
+            if (window.length < len) {
+                window = new char[len];
+            }
+            int n = 0;
+            while (true) {
+                System.arraycopy(segment.array, segment.offset, window, n, segment.count);
+                n += segment.count;
+                if (n == len) {
+                    break;
+                }
+                doc.getText(start + n, len - n, segment);
+            }
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+        segment.array = window;
+        segment.offset = 0;
+        segment.count = len;
+        return segment;
+    }
+}
@@ -0,0 +1,162 @@
+package simplejavatexteditor;
+
+import java.awt.Graphics;
+import java.awt.Shape;
+import java.util.Arrays;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.View;
+
+/**
+ * <h1>A highlighter that also paints the tokens of every line</h1>
+ *
+ * <p>
+ * Selections and other highlights work as in {@link DefaultHighlighter}.
+ * Tokens are not highlights though: each line holds one int array of
+ * (start, length, type) triples relative to the start of the line, the
+ * format of {@link Lexer.Tokens}, and a painter is registered per token
+ * type. No object is created per token, and a whole range of lines is
+ * replaced with a single call and a single repaint.
+ * </p>
+ *
+ * <p>
+ * The views call {@link #paintLayeredHighlights} for every line they paint,
+ * which are only the lines inside the clip, so only the tokens of those
+ * lines are looked at.
+ * </p>
+ */
+public class TokenHighlighter extends DefaultHighlighter {
+
+    private static final int[] NONE = new int[0];
+
+    private JTextComponent component;
+    private LayeredHighlighter.LayerPainter[] painters = new LayeredHighlighter.LayerPainter[0];
+    private int lineCount;
+    private int[][] lines = new int[0][];
+
+    /**
+     * Sets how the tokens of a type are painted.
+     *
+     * @param type the token type
+     * @param painter the painter, or null to not paint them
+     */
+    public void setPainter(int type, LayeredHighlighter.LayerPainter painter) {
+        if (type >= painters.length) {
+            painters = Arrays.copyOf(painters, type + 1);
+        }
+        painters[type] = painter;
+        repaintLines(0, lineCount - 1);
+    }
+
+    /**
+     * Follows a change of the line structure: 'removed' lines at 'index' are
+     * replaced by 'added' lines without tokens.
+     *
+     * @param index the first line changed
+     * @param removed the number of lines removed
+     * @param added the number of lines added
+     */
+    public void replaceLines(int index, int removed, int added) {
+        int count = lineCount - removed + added;
+        if (count > lines.length) {
+            lines = Arrays.copyOf(lines, Math.max(count, lines.length * 3 / 2 + 16));
+        }
+        System.arraycopy(lines, index + removed, lines, index + added, lineCount - index - removed);
+        Arrays.fill(lines, index, index + added, null);
+        if (count < lineCount) {
+            Arrays.fill(lines, count, lineCount, null);
+        }
+        lineCount = count;
+    }
+
+    /**
+     * Replaces the tokens of a range of lines.
+     *
+     * @param first the first line
+     * @param tokens the tokens of each line, as (start, length, type) triples,
+     * null for none
+     * @param count the number of lines
+     */
+    public void setTokens(int first, int[][] tokens, int count) {
+        System.arraycopy(tokens, 0, lines, first, count);
+        repaintLines(first, first + count - 1);
+    }
+
+    /**
+     * Removes the tokens of a range of lines.
+     *
+     * @param first the first line
+     * @param count the number of lines
+     */
+    public void clearTokens(int first, int count) {
+        if (count > 0) {
+            Arrays.fill(lines, first, first + count, null);
+            repaintLines(first, first + count - 1);
+        }
+    }
+
+    /**
+     * @return the number of lines known to the highlighter
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @param line a line
+     * @return its tokens, as (start, length, type) triples
+     */
+    public int[] getTokens(int line) {
+        int[] t = line < lineCount ? lines[line] : null;
+        return t != null ? t : NONE;
+    }
+
+    private void repaintLines(int first, int last) {
+        if (component == null || first > last) {
+            return;
+        }
+        Element root = component.getDocument().getDefaultRootElement();
+        last = Math.min(last, root.getElementCount() - 1);
+        if (first <= last) {
+            component.getUI().damageRange(component, root.getElement(first).getStartOffset(),
+                    root.getElement(last).getEndOffset() - 1);
+        }
+    }
+
+    @Override
+    public void install(JTextComponent c) {
+        super.install(c);
+        component = c;
+    }
+
+    @Override
+    public void deinstall(JTextComponent c) {
+        super.deinstall(c);
+        component = null;
+    }
+
+    @Override
+    public void paintLayeredHighlights(Graphics g, int p0, int p1, Shape viewBounds, JTextComponent editor, View view) {
+        //The tokens go below the selection
+        Element root = editor.getDocument().getDefaultRootElement();
+        int line = root.getElementIndex(p0);
+        int[] t = line < lineCount ? lines[line] : null;
+        if (t != null) {
+            int start = root.getElement(line).getStartOffset();
+            for (int k = 0; k < t.length; k += 3) {
+                int from = start + t[k];
+                int to = from + t[k + 1];
+                int type = t[k + 2];
+                if (from >= p1) {
+                    break;
+                }
+                if (to > p0 && type < painters.length && painters[type] != null) {
+                    painters[type].paintLayer(g, Math.max(from, p0), Math.min(to, p1), viewBounds, editor, view);
+                }
+            }
+        }
+        super.paintLayeredHighlights(g, p0, p1, viewBounds, editor, view);
+    }
+}
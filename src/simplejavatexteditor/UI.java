@@ -50,23 +50,24 @@ import java.awt.dnd.DropTargetListener;
 import java.awt.event.*;
 import javax.swing.event.DocumentEvent; 
 import javax.swing.event.DocumentListener; 
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
 import javax.swing.text.Element; 
 import java.io.BufferedReader; 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException; 
 import java.io.InputStreamReader; 
 import java.io.OutputStreamWriter; 
 import java.io.PrintWriter; 
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.util.Date; 
 import java.text.SimpleDateFormat; 
 import java.util.HashMap; 
 import java.util.Map;
+import java.util.Set;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.text.DefaultEditorKit;
 
 public class UI extends JFrame implements ActionListener {
@@ -82,8 +83,31 @@ public class UI extends JFrame implements ActionListener {
 
     // [Tabbed Interface] Maps to track state per tab
     private final Map<JTextArea, File> fileMap = new HashMap<>();
-    private final Map<JTextArea, JTextArea> linesMap = new HashMap<>();
     private final Map<JTextArea, AutoComplete> autoCompleteMap = new HashMap<>();
+    private final Map<JTextArea, SyntaxHighlighter> highlighterMap = new HashMap<>();
+    // [Completion] Words of all open tabs, follows their edits
+    private final BufferWords bufferWords = new BufferWords();
+    // [Project Index] Symbols of the directory of each open file, by directory
+    private final Map<File, ProjectIndex> projects = new HashMap<>();
+    // [Project Index] Where to put the caret once a tab opened from Go to Symbol is loaded
+    private final Map<JTextArea, Integer> pendingCaret = new HashMap<>();
+    // [Loading] Tabs whose file is still being read, also checked by the auto-save thread
+    private final Map<JTextArea, FileLoader> loaderMap = new ConcurrentHashMap<>();
+    // [Dirty Tracking] Edits since the last save, per tab. Absent while loading
+    private final Map<JTextArea, DirtyTracker> dirtyMap = new HashMap<>();
+    // [Journal] Append-only log of each tab's edits, replayed after a crash
+    private final Map<JTextArea, EditJournal> journalMap = new HashMap<>();
+    // [File Watcher] Reports files changed by other programs. Tabs whose user chose to keep
+    // their own version of such a file are in conflictTabs and are not auto-saved over it
+    private final FileWatcher fileWatcher = new FileWatcher(this::fileChangedOnDisk);
+    private final Set<JTextArea> conflictTabs = ConcurrentHashMap.newKeySet();
+
+    // [Large Files] Files bigger than this (in bytes) are read page by page and decoded lazily.
+    // Can be changed with -Dste.largeFileThreshold=<bytes>
+    private final long largeFileThreshold = Long.getLong("ste.largeFileThreshold", 16L * 1024 * 1024);
+
+    // [Saving] Force saved files to disk before they replace the old ones (-Dste.fsyncOnSave=false to skip)
+    private final boolean syncOnSave = !"false".equals(System.getProperty("ste.fsyncOnSave"));
 
     private final JMenuBar menuBar;
     private final JComboBox<String> fontType;
@@ -91,13 +115,18 @@ public class UI extends JFrame implements ActionListener {
     private final JMenu menuFile, menuEdit, menuFind, menuAbout, menuRun; 
     
     private final JMenuItem newFile, openFile, saveFile, close, closeTab, cut, copy, paste, clearFile, selectAll, quickFind,
-            aboutMe, aboutSoftware, wordWrap, itemRun, fileProperties; 
+            goToSymbol, findInFiles, aboutMe, aboutSoftware, wordWrap, itemRun, fileProperties; 
             
     private final JToolBar mainToolbar;
     
     // Auto-Save Checkbox
     private final JCheckBoxMenuItem itemAutoSave; 
     private volatile boolean isAutoSaveEnabled = false; 
+    // [Auto-Save] Debounced per tab: saved shortly after typing stops, and at the latest
+    // 10s after the first unsaved edit, by at most two writer threads
+    private final AutoSaveScheduler<JTextArea> autoSaver = new AutoSaveScheduler<>(
+            Long.getLong("ste.autoSaveDelay", 1500), Long.getLong("ste.autoSaveMaxLatency", 10000),
+            Integer.getInteger("ste.autoSaveWriters", 2));
 
     JButton newButton, openButton, saveButton, clearButton, quickButton, aboutMeButton, aboutButton, closeButton, boldButton, italicButton;
 
@@ -120,6 +149,10 @@ public class UI extends JFrame implements ActionListener {
 
     private SupportedKeywords kw = new SupportedKeywords();
     private HighlightText languageHighlighter = new HighlightText(Color.GRAY);
+    private final HighlightText commentHighlighter = new HighlightText(new Color(214, 234, 214));
+    private final HighlightText stringHighlighter = new HighlightText(new Color(244, 228, 200));
+    // [Highlighting] Files of no known language, see Language
+    private final Lexer keywordLexer = new KeywordLexer(kw.getCppKeywords(), kw.getJavaKeywords());
 
     public UI() {
         try {
@@ -164,6 +197,8 @@ public class UI extends JFrame implements ActionListener {
         close = new JMenuItem("Quit", closeIcon);
         clearFile = new JMenuItem("Clear", clearIcon);
         quickFind = new JMenuItem("Quick", searchIcon);
+        goToSymbol = new JMenuItem("Go to Symbol");
+        findInFiles = new JMenuItem("Find in Files");
         aboutMe = new JMenuItem("About Me", aboutMeIcon);
         aboutSoftware = new JMenuItem("About Software", aboutIcon);
         
@@ -173,13 +208,18 @@ public class UI extends JFrame implements ActionListener {
         itemRun.addActionListener(this);
 
         // Auto-Save Item
-        itemAutoSave = new JCheckBoxMenuItem("Auto Save (10s)");
+        itemAutoSave = new JCheckBoxMenuItem("Auto Save");
         itemAutoSave.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 isAutoSaveEnabled = itemAutoSave.isSelected();
                 if(isAutoSaveEnabled) {
-                    JOptionPane.showMessageDialog(UI.this, "Auto-Save Enabled! Open files will save every 10 seconds.");
+                    for (JTextArea ta : fileMap.keySet()) {
+                        DirtyTracker dirty = dirtyMap.get(ta);
+                        if (dirty != null && dirty.isDirty()) scheduleAutoSave(ta);
+                    }
+                    JOptionPane.showMessageDialog(UI.this, "Auto-Save Enabled! Open files will save when you pause typing.");
                 } else {
+                    autoSaver.cancelAll();
                     statusLabel.setText(" Auto-Save Disabled");
                 }
             }
@@ -271,6 +311,14 @@ public class UI extends JFrame implements ActionListener {
         quickFind.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK));
         menuFind.add(quickFind);
         
+        goToSymbol.addActionListener(this);
+        goToSymbol.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_T, InputEvent.CTRL_DOWN_MASK));
+        menuFind.add(goToSymbol);
+        
+        findInFiles.addActionListener(this);
+        findInFiles.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        menuFind.add(findInFiles);
+        
         menuRun.add(itemRun);
 
         aboutMe.addActionListener(this);
@@ -362,8 +410,6 @@ public class UI extends JFrame implements ActionListener {
                 if (ta != null) {
                     int s = ta.getFont().getSize();
                     ta.setFont(new Font(p, Font.PLAIN, s));
-                    JTextArea lines = linesMap.get(ta);
-                    if (lines != null) lines.setFont(new Font(p, Font.PLAIN, s));
                 }
             }
         });
@@ -385,8 +431,6 @@ public class UI extends JFrame implements ActionListener {
                     String fontFamily = ta.getFont().getFamily();
                     Font font1 = new Font(fontFamily, Font.PLAIN, sizeOfFont);
                     ta.setFont(font1);
-                    JTextArea lines = linesMap.get(ta);
-                    if (lines != null) lines.setFont(font1);
                 }
             }
         });
@@ -394,58 +438,71 @@ public class UI extends JFrame implements ActionListener {
         // Initial Tab
         createNewTab(null, "Untitled");
         
-        startAutoSaveThread();
+        // [Journal] Offer to restore edits a previous session did not save
+        SwingUtilities.invokeLater(this::recoverJournals);
     }
     
     // [FIXED] Updated logic: Add tab to pane BEFORE enabling AutoComplete
     // This ensures 'getEditor()' returns a valid component, preventing NPE/BadLocationException.
     private void createNewTab(File file, String title) {
-        JTextArea textArea = new JTextArea();
+        createNewTab(file, title, null);
+    }
+    
+    // [Journal] 'recovered' holds edits from a previous session, replayed once the file is loaded
+    private void createNewTab(File file, String title, EditJournal recovered) {
+        // [Piece Table] Edits cost O(log n) and background readers can take snapshots
+        JTextArea textArea = new JTextArea(new PieceTableDocument());
         textArea.setFont(new Font("Century Gothic", Font.PLAIN, 12));
         textArea.setTabSize(2);
         textArea.setLineWrap(true);
+
+        // [Large Files] Paged instead of read, the wrapping view keeps a view per line
+        boolean largeFile = file != null && file.length() > largeFileThreshold;
+        if (largeFile) textArea.setLineWrap(false);
         
-        JTextArea lines = new JTextArea("1");
-        lines.setBackground(Color.LIGHT_GRAY);
-        lines.setEditable(false);
-        lines.setFont(new Font("Century Gothic", Font.PLAIN, 12)); 
-        lines.setMargin(new Insets(0, 5, 0, 5)); 
+        // [Line Numbers] Paints only the numbers of the visible lines, follows the font of the text area
+        LineNumberGutter lines = new LineNumberGutter(textArea);
         
         if (file != null) {
             fileMap.put(textArea, file);
+            fileWatcher.watch(file);
+            indexProject(file);
         }
-        linesMap.put(textArea, lines);
-
-        textArea.getDocument().addDocumentListener(new DocumentListener() {
-            public void getText() {
-                updateLineNumbers(textArea, lines);
-            }
-            @Override public void changedUpdate(DocumentEvent de) { getText(); }
-            @Override public void insertUpdate(DocumentEvent de) { getText(); }
-            @Override public void removeUpdate(DocumentEvent de) { getText(); }
-        });
         
-        textArea.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {}
-            @Override
-            public void keyPressed(KeyEvent ke) {
-                languageHighlighter.highLight(textArea, kw.getCppKeywords());
-                languageHighlighter.highLight(textArea, kw.getJavaKeywords());
-            }
-        });
+        if (file == null) trackChanges(textArea, recovered);
+        
+        // [Highlighting] Follows edits and scrolling, only the lines in view are highlighted
+        SyntaxHighlighter syntax = new SyntaxHighlighter(textArea, lexerFor(file), languageHighlighter);
+        syntax.setPainter(Lexer.COMMENT, commentHighlighter);
+        syntax.setPainter(Lexer.STRING, stringHighlighter);
+        syntax.install();
+        highlighterMap.put(textArea, syntax);
         
         DropTarget dropTarget = new DropTarget(textArea, dropTargetListener);
 
+        // [Loading] Read on a worker thread, the tab fills in as chunks arrive
         if (file != null) {
-            try {
-                Scanner scan = new Scanner(new FileReader(file));
-                while (scan.hasNext()) {
-                    textArea.append(scan.nextLine() + "\n");
-                }
-                scan.close();
-                updateLineNumbers(textArea, lines); 
-            } catch (Exception ex) { ex.printStackTrace(); }
+            textArea.setEditable(false);
+            DefaultCaret caret = (DefaultCaret) textArea.getCaret();
+            caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+            FileLoader loader = new FileLoader(file, textArea.getDocument(), largeFile, statusLabel, doc -> {
+                loaderMap.remove(textArea);
+                caret.setUpdatePolicy(DefaultCaret.UPDATE_WHEN_ON_EDT);
+                // [Large Files] The paged document replaces the empty one, edits share its pieces
+                if (doc != textArea.getDocument()) textArea.setDocument(doc);
+                textArea.setEditable(true);
+                statusLabel.setText((largeFile ? " Opened (large file): " : " Opened: ") + title);
+                trackChanges(textArea, recovered);
+                Integer symbolOffset = pendingCaret.remove(textArea);
+                if (symbolOffset != null) textArea.setCaretPosition(Math.min(symbolOffset, textArea.getDocument().getLength()));
+            }, ex -> {
+                // [Loading] The tab holds part of the file at most, saving it would cut the file short
+                caret.setUpdatePolicy(DefaultCaret.UPDATE_WHEN_ON_EDT);
+                closeTab(textArea);
+                statusLabel.setText(" Could not open " + title);
+            });
+            loaderMap.put(textArea, loader);
+            loader.execute();
         }
 
         JScrollPane scrollPane = new JScrollPane(textArea);
@@ -458,12 +515,65 @@ public class UI extends JFrame implements ActionListener {
         tabbedPane.setSelectedComponent(scrollPane);
         
         // 3. NOW enable AutoComplete (it will find the correct editor)
-        if (file != null) {
+        if (file != null && !largeFile) {
             enableAutoComplete(file, textArea);
         }
         
         // [Assurance] Reset status
-        statusLabel.setText(" Opened: " + title);
+        statusLabel.setText(file != null ? " Loading " + title + "..." : " Opened: " + title);
+    }
+    
+    private void trackChanges(JTextArea textArea, EditJournal recovered) {
+        Document doc = textArea.getDocument();
+        DirtyTracker dirty = new DirtyTracker();
+        doc.addDocumentListener(dirty);
+        dirtyMap.put(textArea, dirty);
+        
+        EditJournal journal = recovered;
+        if (journal != null) {
+            if (journal.replay(doc)) {
+                statusLabel.setText(" Recovered unsaved changes");
+            } else {
+                statusLabel.setText(" Could not recover changes, the file was modified since");
+                journal.discard();
+                journal = null;
+            }
+        }
+        if (journal == null) {
+            journal = EditJournal.create(fileMap.get(textArea), doc.getLength());
+        }
+        doc.addDocumentListener(journal);
+        journalMap.put(textArea, journal);
+        
+        bufferWords.attach(doc, lexerFor(fileMap.get(textArea)));
+        
+        doc.addDocumentListener(new DocumentListener() {
+            @Override public void changedUpdate(DocumentEvent de) {}
+            @Override public void insertUpdate(DocumentEvent de) { scheduleAutoSave(textArea); }
+            @Override public void removeUpdate(DocumentEvent de) { scheduleAutoSave(textArea); }
+        });
+    }
+    
+    private void recoverJournals() {
+        java.util.List<EditJournal> journals = EditJournal.findRecoverable();
+        if (journals.isEmpty()) return;
+        
+        StringBuilder names = new StringBuilder();
+        for (EditJournal journal : journals) {
+            File target = journal.getTarget();
+            names.append("\n  ").append(target != null ? target.getAbsolutePath() : "Untitled");
+        }
+        int n = JOptionPane.showConfirmDialog(this, "Unsaved changes from the last session were found for:" + names
+                + "\n\nRestore them?", "Recover Unsaved Work", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+        
+        for (EditJournal journal : journals) {
+            File target = journal.getTarget();
+            if (n != JOptionPane.YES_OPTION || (target != null && !target.isFile())) {
+                journal.discard();
+            } else {
+                createNewTab(target, (target != null ? target.getName() : "Untitled") + " (recovered)", journal);
+            }
+        }
     }
     
     private JTextArea getCurrentTextArea() {
@@ -480,6 +590,63 @@ public class UI extends JFrame implements ActionListener {
         return getCurrentTextArea();
     }
     
+    // [Project Index] Used by AutoComplete.java, null for tabs without a file
+    public ProjectIndex getProject(JTextArea ta) {
+        File file = fileMap.get(ta);
+        return file == null ? null : projects.get(file.getAbsoluteFile().getParentFile());
+    }
+    
+    // [Project Index] Indexes the file's directory in the background, only changed files are read again
+    private void indexProject(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) projects.computeIfAbsent(dir, ProjectIndex::new).update(null);
+    }
+    
+    // [Project Index] Finds a class, method or function of the current project and opens it
+    private void goToSymbol() {
+        ProjectIndex project = getProject(getCurrentTextArea());
+        if (project == null) {
+            JOptionPane.showMessageDialog(this, "Open or save a file to index its directory first.");
+            return;
+        }
+        String prefix = JOptionPane.showInputDialog(this, "Symbol name starts with:", "Go to Symbol", JOptionPane.QUESTION_MESSAGE);
+        if (prefix == null || prefix.isEmpty()) return;
+        java.util.List<ProjectIndex.Symbol> found = project.find(prefix, 200);
+        if (found.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No symbol starts with \"" + prefix + "\" in " + project.getRoot().getName());
+            return;
+        }
+        ProjectIndex.Symbol[] choices = found.toArray(new ProjectIndex.Symbol[0]);
+        ProjectIndex.Symbol symbol = (ProjectIndex.Symbol) JOptionPane.showInputDialog(this, "Symbol:", "Go to Symbol",
+                JOptionPane.PLAIN_MESSAGE, null, choices, choices[0]);
+        if (symbol == null) return;
+        openAt(symbol.file, symbol.offset);
+    }
+    
+    // [Project Index] Shows the file at an offset, in its tab if it is open, used by Go to Symbol and FindInFiles.java
+    public void openAt(File file, int offset) {
+        for (Map.Entry<JTextArea, File> e : fileMap.entrySet()) {
+            if (e.getValue().getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                JTextArea ta = e.getKey();
+                tabbedPane.setSelectedComponent(SwingUtilities.getAncestorOfClass(JScrollPane.class, ta));
+                if (loaderMap.containsKey(ta)) {
+                    pendingCaret.put(ta, offset);
+                } else {
+                    ta.setCaretPosition(Math.min(offset, ta.getDocument().getLength()));
+                }
+                ta.requestFocusInWindow();
+                return;
+            }
+        }
+        createNewTab(file, file.getName());
+        pendingCaret.put(getCurrentTextArea(), offset);
+    }
+    
+    // [Completion] Used by AutoComplete.java
+    public BufferWords getBufferWords() {
+        return bufferWords;
+    }
+    
     private File getCurrentFile() {
         JTextArea ta = getCurrentTextArea();
         if (ta != null) {
@@ -488,15 +655,6 @@ public class UI extends JFrame implements ActionListener {
         return null;
     }
     
-    private void updateLineNumbers(JTextArea ta, JTextArea lines) {
-        int totalLines = ta.getLineCount();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 1; i <= totalLines; i++) {
-            sb.append(i).append(System.lineSeparator());
-        }
-        lines.setText(sb.toString());
-    }
-    
     private void showFileProperties() {
         File currentFile = getCurrentFile();
         if (currentFile == null) {
@@ -516,6 +674,7 @@ public class UI extends JFrame implements ActionListener {
         props.append("Last Modified: ").append(lastModified).append("\n");
         props.append("Readable: ").append(currentFile.canRead() ? "Yes" : "No").append("\n");
         props.append("Writable: ").append(currentFile.canWrite() ? "Yes" : "No").append("\n");
+        props.append("Auto-Save: ").append(autoSaver.getTimings()).append("\n");
 
         JOptionPane.showMessageDialog(this, props.toString(), "File Properties", JOptionPane.INFORMATION_MESSAGE);
     }
@@ -527,32 +686,27 @@ public class UI extends JFrame implements ActionListener {
         }
     }
 
+    // [Highlighting] The lexer of the file's language, shared by all its tabs
+    private Lexer lexerFor(File file) {
+        Language language = file == null ? null : Language.forFile(file.getName());
+        return language != null ? language.getLexer() : keywordLexer;
+    }
+
     public void enableAutoComplete(File file, JTextArea textArea) {
         if (autoCompleteMap.containsKey(textArea)) {
             textArea.getDocument().removeDocumentListener(autoCompleteMap.get(textArea));
-            autoCompleteMap.remove(textArea);
+            autoCompleteMap.remove(textArea).dispose();
         }
 
-        ArrayList<String> arrayList = null;
-        String[] list = kw.getSupportedLanguages();
+        // [Highlighting] A save under another name can change the language
+        SyntaxHighlighter syntax = highlighterMap.get(textArea);
+        if (syntax != null) syntax.setLexer(lexerFor(file));
 
-        for (int i = 0; i < list.length; i++) {
-            if (file.getName().endsWith(list[i])) {
-                switch (i) {
-                    case 0 -> {
-                        String[] jk = kw.getJavaKeywords();
-                        arrayList = kw.setKeywords(jk);
-                    }
-                    case 1 -> {
-                        String[] ck = kw.getCppKeywords();
-                        arrayList = kw.setKeywords(ck);
-                    }
-                }
-            }
-        }
+        // Keywords by file extension, shared by the tabs of a language, see Language
+        Language language = Language.forFile(file.getName());
         
-        if (arrayList != null) {
-            AutoComplete newAutoComplete = new AutoComplete(this, arrayList);
+        if (language != null) {
+            AutoComplete newAutoComplete = new AutoComplete(this, language.getCompletions(), syntax);
             textArea.getDocument().addDocumentListener(newAutoComplete);
             autoCompleteMap.put(textArea, newAutoComplete);
         }
@@ -564,14 +718,8 @@ public class UI extends JFrame implements ActionListener {
         } else if (e.getSource() == newFile || e.getSource() == newButton) {
             createNewTab(null, "Untitled");
         } else if (e.getSource() == closeTab) {
-            int idx = tabbedPane.getSelectedIndex();
-            if (idx != -1) {
-                JTextArea ta = getCurrentTextArea();
-                fileMap.remove(ta);
-                linesMap.remove(ta);
-                autoCompleteMap.remove(ta);
-                tabbedPane.remove(idx);
-            }
+            JTextArea ta = getCurrentTextArea();
+            if (ta != null) closeTab(ta);
         } else if (e.getSource() == openFile || e.getSource() == openButton) {
             JFileChooser open = new JFileChooser(); 
             int option = open.showOpenDialog(this); 
@@ -594,6 +742,13 @@ public class UI extends JFrame implements ActionListener {
         } else if (e.getSource() == quickFind || e.getSource() == quickButton) {
             JTextArea ta = getCurrentTextArea();
             if (ta != null) new Find(ta);
+        } else if (e.getSource() == goToSymbol) {
+            goToSymbol();
+        } else if (e.getSource() == findInFiles) {
+            // [Find in Files] In the current file's directory, else the working directory
+            File current = getCurrentFile();
+            File dir = current != null ? current.getAbsoluteFile().getParentFile() : null;
+            new FindInFiles(this, dir != null ? dir : new File(System.getProperty("user.dir")));
         } else if (e.getSource() == aboutMe || e.getSource() == aboutMeButton) {
             new About(this).me();
         } else if (e.getSource() == aboutSoftware || e.getSource() == aboutButton) {
@@ -606,12 +761,35 @@ public class UI extends JFrame implements ActionListener {
         }
     }
 
+    private void closeTab(JTextArea ta) {
+        FileLoader loader = loaderMap.remove(ta);
+        if (loader != null) loader.cancel(true);
+        File closed = fileMap.remove(ta);
+        if (closed != null) fileWatcher.unwatch(closed);
+        conflictTabs.remove(ta);
+        dirtyMap.remove(ta);
+        EditJournal journal = journalMap.remove(ta);
+        if (journal != null) journal.discard();
+        autoSaver.cancel(ta);
+        AutoComplete autoComplete = autoCompleteMap.remove(ta);
+        if (autoComplete != null) autoComplete.dispose();
+        SyntaxHighlighter syntax = highlighterMap.remove(ta);
+        if (syntax != null) syntax.uninstall();
+        bufferWords.detach(ta.getDocument());
+        pendingCaret.remove(ta);
+        tabbedPane.remove(SwingUtilities.getAncestorOfClass(JScrollPane.class, ta));
+    }
+
     private void saveFile() {
         JTextArea ta = getCurrentTextArea();
         if (ta == null) return;
         
         File currentFile = fileMap.get(ta);
-        
+
+        if (loaderMap.containsKey(ta)) {
+            statusLabel.setText(" Still loading, save again once the file is open");
+            return;
+        }
         if (currentFile == null) { 
             JFileChooser fileChoose = new JFileChooser();
             int option = fileChoose.showSaveDialog(this);
@@ -619,11 +797,10 @@ public class UI extends JFrame implements ActionListener {
                 try {
                     File openFile = fileChoose.getSelectedFile();
                     fileMap.put(ta, openFile); 
+                    fileWatcher.watch(openFile);
                     tabbedPane.setTitleAt(tabbedPane.getSelectedIndex(), openFile.getName()); 
                     
-                    BufferedWriter out = new BufferedWriter(new FileWriter(openFile.getPath()));
-                    out.write(ta.getText());
-                    out.close();
+                    saveTo(ta, openFile);
                     
                     enableAutoComplete(openFile, ta);
                     
@@ -633,13 +810,13 @@ public class UI extends JFrame implements ActionListener {
                     
                 } catch (Exception ex) { 
                     System.err.println(ex.getMessage());
+                    // [Assurance] A failed save must not look like a saved file
+                    statusLabel.setText(" Could not save " + fileMap.get(ta).getName() + ": " + ex.getMessage());
                 }
             }
         } else { 
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(currentFile.getPath()));
-                out.write(ta.getText());
-                out.close();
+                saveTo(ta, currentFile);
                 
                 // [Assurance] Update Label
                 String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
@@ -647,10 +824,33 @@ public class UI extends JFrame implements ActionListener {
                 
             } catch (Exception ex) { 
                 System.err.println(ex.getMessage());
+                // [Assurance] A failed save must not look like a saved file
+                statusLabel.setText(" Could not save " + currentFile.getName() + ": " + ex.getMessage());
             }
         }
     }
 
+    // Explicit save, overwrites the file even if it was changed by another program
+    private void saveTo(JTextArea ta, File file) throws IOException {
+        fileWatcher.beginSave(file);
+        try {
+            FileSaver.save(ta.getDocument(), file, syncOnSave, null);
+        } finally {
+            fileWatcher.endSave(file);
+        }
+        markSaved(ta, file);
+        conflictTabs.remove(ta);
+    }
+
+    // Called on the EDT right after the tab's text was written to 'file'
+    private void markSaved(JTextArea ta, File file) {
+        DirtyTracker dirty = dirtyMap.get(ta);
+        if (dirty != null) dirty.markSaved(dirty.getModCount());
+        indexProject(file);
+        EditJournal journal = journalMap.get(ta);
+        if (journal != null) journal.compact(journal.mark(), file, ta.getDocument().getLength());
+    }
+
     DropTargetListener dropTargetListener = new DropTargetListener() {
         @Override public void dragEnter(DropTargetDragEvent e) {}
         @Override public void dragExit(DropTargetEvent e) {}
@@ -765,53 +965,116 @@ public class UI extends JFrame implements ActionListener {
         });
     }
 
-    // [FIXED] Thread-safe Auto-Save Helper
-    // Uses SwingUtilities.invokeAndWait to read text safely, preventing BadLocationException
-    private void autoSaveHelper() {
-        for (Map.Entry<JTextArea, File> entry : fileMap.entrySet()) {
-            File f = entry.getValue();
-            JTextArea t = entry.getKey();
-            if (f != null && t != null) {
-                try {
-                    // Safe way to get text from GUI thread
-                    final String[] text = new String[1];
-                    try {
-                        SwingUtilities.invokeAndWait(() -> text[0] = t.getText());
-                    } catch (Exception e) {
-                        continue; // Skip if UI interaction failed
-                    }
-                    
-                    BufferedWriter out = new BufferedWriter(new FileWriter(f.getPath()));
-                    out.write(text[0]);
-                    out.close();
-                    
-                    // [Assurance] Visual feedback on Auto-Save
-                    String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
-                    SwingUtilities.invokeLater(() -> statusLabel.setText(" Auto-saved " + f.getName() + " at " + time));
-                    
-                } catch (Exception ex) {
-                    System.err.println("Auto-save failed for " + f.getName());
+    // [Auto-Save] Called on the EDT after every edit, (re)schedules the tab's save.
+    // What to save is captured here so the writer thread never touches the maps
+    private void scheduleAutoSave(JTextArea ta) {
+        File f = fileMap.get(ta);
+        DirtyTracker dirty = dirtyMap.get(ta);
+        EditJournal journal = journalMap.get(ta);
+        if (!isAutoSaveEnabled || f == null || dirty == null) return;
+        
+        Document doc = ta.getDocument();
+        autoSaver.editHappened(ta, () -> autoSave(ta, f, doc, dirty, journal));
+    }
+    
+    // [Dirty Tracking] Runs on an auto-save thread. FileSaver takes an O(1) snapshot under the
+    // read lock and writes it with no lock held, so edits never wait for the disk.
+    // [Journal] Every auto-save is a compaction: the journal drops what the file now holds
+    private void autoSave(JTextArea ta, File f, Document doc, DirtyTracker dirty, EditJournal journal) {
+        if (!dirty.isDirty()) return;
+        // [File Watcher] Never silently overwrite a change made by another program
+        if (conflictTabs.contains(ta) || fileWatcher.changedOnDisk(f)) {
+            SwingUtilities.invokeLater(() -> statusLabel.setText(" Not auto-saving " + f.getName() + ", it was changed on disk"));
+            return;
+        }
+        long start = System.nanoTime();
+        fileWatcher.beginSave(f);
+        try {
+            // modCount, journal mark and length of the text actually written
+            long[] saved = new long[3];
+            FileSaver.save(doc, f, syncOnSave, () -> {
+                saved[0] = dirty.getModCount();
+                saved[1] = journal.mark();
+                saved[2] = doc.getLength();
+            });
+            dirty.markSaved(saved[0]);
+            journal.compact(saved[1], f, (int) saved[2]);
+            
+            // [Assurance] Visual feedback on Auto-Save
+            String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
+            String took = String.format(" (%.1f ms)", (System.nanoTime() - start) / 1e6);
+            SwingUtilities.invokeLater(() -> statusLabel.setText(" Auto-saved " + f.getName() + " at " + time + took));
+            
+        } catch (Exception ex) {
+            System.err.println("Auto-save failed for " + f.getName());
+            SwingUtilities.invokeLater(() -> statusLabel.setText(" Auto-save failed for " + f.getName() + ": "
+                    + ex.getMessage()));
+        } finally {
+            fileWatcher.endSave(f);
+        }
+    }
+    
+    // [File Watcher] Called on the EDT when a file open in a tab was changed by another program
+    private void fileChangedOnDisk(Path path) {
+        for (JTextArea ta : new ArrayList<>(fileMap.keySet())) {
+            File file = fileMap.get(ta);
+            if (!file.toPath().toAbsolutePath().normalize().equals(path) || loaderMap.containsKey(ta)) continue;
+            
+            DirtyTracker dirty = dirtyMap.get(ta);
+            if (dirty != null && dirty.isDirty()) {
+                int n = JOptionPane.showConfirmDialog(this, file.getName() + " was changed by another program.\n"
+                        + "Reload it and lose your unsaved changes?", "File Changed", JOptionPane.YES_NO_OPTION,
+                        JOptionPane.WARNING_MESSAGE);
+                if (n != JOptionPane.YES_OPTION) {
+                    conflictTabs.add(ta);
+                    statusLabel.setText(" Kept your version of " + file.getName() + ", save to overwrite the file");
+                    continue;
                 }
             }
+            reload(ta, file);
         }
     }
-
-    private void startAutoSaveThread() {
-        Thread backgroundThread = new Thread(() -> {
-            while (true) {
+    
+    // [File Watcher] Only the range that differs from the file is replaced, not the whole text
+    private void reload(JTextArea ta, File file) {
+        if (ta.getDocument() instanceof LargeFileDocument) {
+            FileLoader loader = new FileLoader(file, null, true, statusLabel, doc -> {
+                loaderMap.remove(ta);
+                autoSaver.cancel(ta);
+                EditJournal journal = journalMap.remove(ta);
+                if (journal != null) journal.discard();
+                bufferWords.detach(ta.getDocument());
+                ta.setDocument(doc);
+                trackChanges(ta, null);
+                conflictTabs.remove(ta);
+                statusLabel.setText(" Reloaded " + file.getName());
+            }, ex -> {
+                // [File Watcher] The tab keeps the text it had
+                loaderMap.remove(ta);
+                statusLabel.setText(" Could not reload " + file.getName());
+            });
+            loaderMap.put(ta, loader);
+            loader.execute();
+            return;
+        }
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                return FileWatcher.readText(file.toPath());
+            }
+            @Override
+            protected void done() {
+                if (fileMap.get(ta) != file) return; // closed or saved elsewhere meanwhile
                 try {
-                    Thread.sleep(10000); 
-                    if (isAutoSaveEnabled) {
-                        autoSaveHelper();
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    FileWatcher.patch(ta.getDocument(), get());
+                    markSaved(ta, file);
+                    conflictTabs.remove(ta);
+                    statusLabel.setText(" Reloaded " + file.getName());
+                } catch (Exception ex) {
+                    ex.printStackTrace();
                 }
             }
-        });
-        
-        backgroundThread.setDaemon(true); 
-        backgroundThread.start();
+        }.execute();
     }
     
     class ConsoleWindow extends JFrame {
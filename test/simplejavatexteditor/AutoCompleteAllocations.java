@@ -0,0 +1,134 @@
+package simplejavatexteditor;
+
+import com.sun.management.ThreadMXBean;
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * <h1>Checks what a typed key allocates in AutoComplete</h1>
+ *
+ * <p>
+ * A key typed at the end of a word is replayed many times on the EDT, at
+ * offsets from the top to the end of a large Java text, and the bytes the
+ * EDT allocates per key are read from
+ * {@link ThreadMXBean#getThreadAllocatedBytes(long)}. They must stay small
+ * and must not grow with the offset. Run headless:
+ * </p>
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp build/classes:build/test/classes simplejavatexteditor.AutoCompleteAllocations
+ * </pre>
+ */
+public class AutoCompleteAllocations {
+
+    //The typed word, its request and the request's Runnable
+    private static final long MAX_BYTES_PER_KEY = 512;
+    //Two offsets may differ by this much, for noise
+    private static final long MAX_SPREAD = 16;
+    private static final int KEYS = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 8_000_000) {
+            text.append("    int counter = value + other; // note\n");
+        }
+        JTextArea textArea = new JTextArea(new PieceTableDocument());
+        textArea.setText(text.toString());
+        Language java = Language.forFile("Check.java");
+        SyntaxHighlighter syntax = new SyntaxHighlighter(textArea, java.getLexer(),
+                new HighlightText(Color.GRAY));
+        AutoComplete autoComplete = new AutoComplete(textArea, java.getCompletions(), new BufferWords(),
+                ta -> null, syntax);
+        SwingUtilities.invokeAndWait(syntax::install);
+
+        Document doc = textArea.getDocument();
+        int length = doc.getLength();
+        //Right after "coun", inside a word, so completion is asked for
+        int[] offsets = {text.indexOf("coun") + 4, text.indexOf("coun", length / 2) + 4,
+            text.lastIndexOf("coun") + 4};
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        //The lexer runs in the background, the lines must be lexed for the comment check to run
+        for (int offset : offsets) {
+            int note = text.indexOf("note", offset) + 2;
+            int[] type = {-1};
+            for (int i = 0; i < 2000 && type[0] != Lexer.COMMENT; i++) {
+                SwingUtilities.invokeAndWait(() -> type[0] = syntax.tokenTypeAt(note));
+                Thread.sleep(5);
+            }
+            if (type[0] != Lexer.COMMENT) {
+                throw new AssertionError("the line at " + offset + " was not lexed");
+            }
+        }
+        for (int offset : offsets) {
+            DocumentEvent typed = new Typed(doc, offset - 1);
+            long[] bytes = new long[1];
+            SwingUtilities.invokeAndWait(() -> {
+                //Warm up, so the JIT settles first
+                for (int i = 0; i < KEYS; i++) {
+                    autoComplete.insertUpdate(typed);
+                }
+                long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < KEYS; i++) {
+                    autoComplete.insertUpdate(typed);
+                }
+                bytes[0] = (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / KEYS;
+            });
+            System.out.println("offset " + offset + ": " + bytes[0] + " bytes per key");
+            min = Math.min(min, bytes[0]);
+            max = Math.max(max, bytes[0]);
+        }
+        autoComplete.dispose();
+        if (max > MAX_BYTES_PER_KEY) {
+            throw new AssertionError(max + " bytes per key, want at most " + MAX_BYTES_PER_KEY);
+        }
+        if (max - min > MAX_SPREAD) {
+            throw new AssertionError("bytes per key grow with the offset, " + min + " to " + max);
+        }
+        System.out.println("ok");
+        System.exit(0);
+    }
+
+    //A char typed at an offset, already in the document
+    private static final class Typed implements DocumentEvent {
+
+        private final Document doc;
+        private final int offset;
+
+        Typed(Document doc, int offset) {
+            this.doc = doc;
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public int getLength() {
+            return 1;
+        }
+
+        @Override
+        public Document getDocument() {
+            return doc;
+        }
+
+        @Override
+        public EventType getType() {
+            return EventType.INSERT;
+        }
+
+        @Override
+        public ElementChange getChange(Element elem) {
+            return null;
+        }
+    }
+}
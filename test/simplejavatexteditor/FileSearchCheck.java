@@ -0,0 +1,137 @@
+package simplejavatexteditor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import javax.swing.SwingUtilities;
+
+/**
+ * <h1>Checks the hits of FileSearch against a search of the whole text</h1>
+ *
+ * <p>
+ * Random files, up to a few windows long, with "\r\n" line ends, chars of
+ * two to four bytes in UTF-8 and lines longer than a hit shows, are
+ * searched. Every hit must have the offset, line and text a search of the
+ * whole normalized text gives, so matches and line ends cut by a window
+ * or a chunk are found whole. Run headless:
+ * </p>
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp build/classes:build/test/classes simplejavatexteditor.FileSearchCheck
+ * </pre>
+ */
+public class FileSearchCheck {
+
+    //Near misses too, which no two pieces put together can turn into a match
+    private static final String[] PIECES = {"needle", "needx", "xeedle", "x", " ", "\n", "\r\n", "\r", "é",
+        "€", "😀", "NEEDLE"};
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("filesearch");
+        Random random = new Random(23);
+        int files = 40;
+        for (int f = 0; f < files; f++) {
+            int size = f < 10 ? random.nextInt(1000) : random.nextInt(3 * FileSearch.WINDOW);
+            //Sparse matches in most files, long lines in some
+            int every = f % 4 == 0 ? 300 : 3000;
+            StringBuilder text = new StringBuilder();
+            while (text.length() < size) {
+                String piece = PIECES[random.nextInt(PIECES.length)];
+                if (piece.equalsIgnoreCase("needle") && random.nextInt(every) != 0) {
+                    piece = "x";
+                }
+                if (f % 3 == 0 && piece.indexOf('\n') >= 0 && random.nextInt(50) != 0) {
+                    piece = " ";
+                }
+                text.append(piece);
+            }
+            Files.write(dir.resolve("f" + f + ".txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        //Matches at and around the end of the first window, and where the next one starts searching
+        for (int d = -8; d <= 8; d++) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 2 * FileSearch.WINDOW) {
+                for (int n = random.nextInt(300); n > 0; n--) {
+                    text.append('x');
+                }
+                text.append(d % 2 == 0 ? "\n" : "\r\n");
+            }
+            for (int at : new int[]{FileSearch.WINDOW - FileSearch.MAX_LINE + d, FileSearch.WINDOW + d}) {
+                text.replace(at, at + 6, "needle");
+            }
+            Files.write(dir.resolve("edge" + d + ".txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        check(dir, "needle", false);
+        check(dir, "needle", true);
+        check(dir, "le\n€\n😀", false);
+        for (File f : dir.toFile().listFiles()) {
+            f.delete();
+        }
+        dir.toFile().delete();
+        System.out.println("ok");
+        System.exit(0);
+    }
+
+    private static void check(Path dir, String query, boolean matchCase) throws Exception {
+        TextSearch search = new TextSearch(query, matchCase);
+        List<FileSearch.Hit> hits = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> new FileSearch(dir.toFile(), search, hits::addAll).start(done::countDown));
+        done.await();
+
+        List<FileSearch.Hit> want = new ArrayList<>();
+        for (File file : dir.toFile().listFiles()) {
+            want.addAll(search(file, FileWatcher.readText(file.toPath()), query, matchCase));
+        }
+        Comparator<FileSearch.Hit> order = Comparator.comparing((FileSearch.Hit h) -> h.file.getName())
+                .thenComparingInt(h -> h.offset);
+        hits.sort(order);
+        want.sort(order);
+        if (hits.size() != want.size()) {
+            throw new AssertionError(query + ": " + hits.size() + " hits, want " + want.size());
+        }
+        for (int i = 0; i < want.size(); i++) {
+            FileSearch.Hit h = hits.get(i);
+            FileSearch.Hit w = want.get(i);
+            if (!h.file.equals(w.file) || h.offset != w.offset || h.line != w.line || !h.text.equals(w.text)) {
+                throw new AssertionError(query + ": hit " + h.file.getName() + "@" + h.offset + ":" + h.line + " \""
+                        + h.text + "\", want " + w.file.getName() + "@" + w.offset + ":" + w.line + " \"" + w.text + "\"");
+            }
+        }
+        System.out.println(query.replace("\n", "\\n") + (matchCase ? " (case)" : "") + ": " + hits.size() + " hits");
+    }
+
+    //The hits of one file, from its whole text, as many as FileSearch keeps
+    private static List<FileSearch.Hit> search(File file, String text, String query, boolean matchCase) {
+        List<FileSearch.Hit> found = new ArrayList<>();
+        String haystack = matchCase ? text : text.toLowerCase();
+        String needle = matchCase ? query : query.toLowerCase();
+        int line = 1;
+        int counted = 0;
+        for (int i = haystack.indexOf(needle); i >= 0 && found.size() < FileSearch.MAX_HITS_PER_FILE;
+                i = haystack.indexOf(needle, i + needle.length())) {
+            for (; counted < i; counted++) {
+                if (text.charAt(counted) == '\n') {
+                    line++;
+                }
+            }
+            int start = i;
+            while (start > 0 && text.charAt(start - 1) != '\n' && i - start < FileSearch.MAX_LINE) {
+                start--;
+            }
+            int end = i;
+            while (end < text.length() && text.charAt(end) != '\n' && end - start < FileSearch.MAX_LINE) {
+                end++;
+            }
+            found.add(new FileSearch.Hit(file, i, line, text.substring(start, end).trim()));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,155 @@
+package simplejavatexteditor;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+
+/**
+ * <h1>Checks the matches MatchHighlighter keeps across edits</h1>
+ *
+ * <p>
+ * After every random insert or remove, the matches are compared with a
+ * fresh search of the whole text, for literal queries and expressions,
+ * including ones that match across lines. Run headless:
+ * </p>
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp build/classes:build/test/classes simplejavatexteditor.MatchHighlighterCheck
+ * </pre>
+ */
+public class MatchHighlighterCheck {
+
+    private static final String CHARS = "aabc \n";
+    private static final int EDITS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        //Matches that span a line end, inserting right after the line break
+        check("foo \nbar", "\\s+", true, 5, " ");
+        check("a\nx\ny\n", "a[\\s\\S]*b", true, 6, "b");
+        //Octal escapes and ranges with an escaped end that take a line end
+        check("a\nx", "a\\012b", true, 2, "b");
+        check("a\nx", "a[\\00-~]b", true, 2, "b");
+        check("a\nx", "a[\\t-~]b", true, 2, "b");
+
+        Object[][] queries = {{"ab", false}, {"aaa", false}, {"b", false}, {"a[bc]+", true},
+            {"^b", true}, {"c.*a$", true}, {"\\s+", true}, {"a[^c]*b", true}};
+        for (Object[] q : queries) {
+            random((String) q[0], (Boolean) q[1]);
+        }
+        System.out.println("ok");
+        System.exit(0);
+    }
+
+    //One edit of a text, then the matches must be those of a fresh search
+    private static void check(String text, String query, boolean regex, int at, String inserted) throws Exception {
+        JTextArea textArea = new JTextArea(new PieceTableDocument());
+        textArea.setText(text);
+        MatchHighlighter matches = start(textArea, query, regex);
+        SwingUtilities.invokeAndWait(() -> insert(textArea.getDocument(), at, inserted));
+        compare(textArea, matches, query, regex, "after inserting at " + at);
+    }
+
+    private static void random(String query, boolean regex) throws Exception {
+        Random random = new Random(query.hashCode());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        JTextArea textArea = new JTextArea(new PieceTableDocument());
+        textArea.setText(text.toString());
+        MatchHighlighter matches = start(textArea, query, regex);
+        for (int k = 0; k < EDITS; k++) {
+            SwingUtilities.invokeAndWait(() -> {
+                Document doc = textArea.getDocument();
+                int length = doc.getLength();
+                int n = 1 + random.nextInt(random.nextInt(10) == 0 ? 50 : 3);
+                if (random.nextBoolean() || length < 10) {
+                    StringBuilder s = new StringBuilder();
+                    for (int i = 0; i < n; i++) {
+                        s.append(CHARS.charAt(random.nextInt(CHARS.length())));
+                    }
+                    insert(doc, random.nextInt(length + 1), s.toString());
+                } else {
+                    int at = random.nextInt(length);
+                    try {
+                        doc.remove(at, Math.min(length - at, n));
+                    } catch (BadLocationException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+            compare(textArea, matches, query, regex, "after edit " + k);
+        }
+        System.out.println(query + ": " + EDITS + " edits, " + matches.getCount() + " matches");
+    }
+
+    private static MatchHighlighter start(JTextArea textArea, String query, boolean regex) throws Exception {
+        MatchHighlighter matches = new MatchHighlighter(textArea,
+                new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW), () -> {
+                });
+        SwingUtilities.invokeAndWait(() -> {
+            matches.install();
+            matches.setQuery(query, regex, true);
+        });
+        return matches;
+    }
+
+    private static void insert(Document doc, int at, String text) {
+        try {
+            doc.insertString(at, text, null);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void compare(JTextArea textArea, MatchHighlighter matches, String query, boolean regex,
+            String when) throws Exception {
+        //A recount may be running
+        for (int i = 0; i < 1000; i++) {
+            boolean[] counting = {true};
+            SwingUtilities.invokeAndWait(() -> counting[0] = matches.isCounting());
+            if (!counting[0]) {
+                break;
+            }
+            Thread.sleep(5);
+        }
+        SwingUtilities.invokeAndWait(() -> {
+            List<int[]> want = search(textArea.getText(), query, regex);
+            if (want.size() != matches.getCount()) {
+                throw new AssertionError(query + " " + when + ": " + matches.getCount() + " matches, want " + want.size());
+            }
+            for (int i = 0; i < want.size(); i++) {
+                if (matches.start(i) != want.get(i)[0] || matches.end(i) != want.get(i)[1]) {
+                    throw new AssertionError(query + " " + when + ": match " + i + " is [" + matches.start(i) + ","
+                            + matches.end(i) + "), want [" + want.get(i)[0] + "," + want.get(i)[1] + ")");
+                }
+            }
+        });
+    }
+
+    //The non-overlapping, non-empty matches, as Replace All finds them
+    private static List<int[]> search(String text, String query, boolean regex) {
+        List<int[]> found = new ArrayList<>();
+        if (!regex) {
+            for (int i = text.indexOf(query); i >= 0; i = text.indexOf(query, i + query.length())) {
+                found.add(new int[]{i, i + query.length()});
+            }
+            return found;
+        }
+        Matcher m = Pattern.compile(query, Pattern.MULTILINE).matcher(text);
+        while (m.find()) {
+            if (m.end() > m.start()) {
+                found.add(new int[]{m.start(), m.end()});
+            }
+        }
+        return found;
+    }
+}